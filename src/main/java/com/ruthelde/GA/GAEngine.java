@@ -4,11 +4,15 @@ import com.ruthelde.Helper.Helper;
 import com.ruthelde.Helper.Plot.PlotWindow;
 import com.ruthelde.IBA.CalculationSetup.CalculationSetup;
 import com.ruthelde.IBA.Simulator.SimulationData;
+import com.ruthelde.IBA.Simulator.SimulationInput;
+import com.ruthelde.IBA.Simulator.SimulationKernel;
 import com.ruthelde.IBA.Simulator.SimulationResultPlotter;
 import com.ruthelde.IBA.Simulator.SpectrumSimulator;
+import com.ruthelde.Stopping.StoppingTableCache;
 import com.ruthelde.Target.*;
 import javax.swing.*;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
@@ -21,18 +25,37 @@ public class GAEngine {
     private Population population;
     private final DEParameter deParameter;
     private final SpectrumSimulator spectrumSimulator;
+    private final List<SpectrumSimulator> spectrumSimulators;
+    private final SimulationKernel simulationKernel;
+    private List<SimulationInput> simulationInputs;
+    private ExecutorService executorService;
     private final SimulationResultPlotter simulationResultPlotter;
     private final FitnessPlotter fitnessPlotter;
     private final ParameterPlotter parameterPlotter;
     private double bestFitness, averageFitness, averageTime;
     private long lastMillis, totalTime;
+    private long numberOfSimulations, numberOfEarlyRejections;
     private int generationCounter, fittestIndex, processors;
-    private double[] originalSpectrum;
+    private double[][] originalSpectra;
     private boolean stop;
 
     public GAEngine(SpectrumSimulator spectrumSimulator, DEParameter deParameter, CalculationSetup calculationSetup){
 
-        this.spectrumSimulator  = spectrumSimulator                                                       ;
+        this(Collections.singletonList(spectrumSimulator), deParameter, calculationSetup);
+    }
+
+    /**
+     * Joint fit of several spectra of the same sample (e.g. different beam energies or detector angles). All spectra
+     * are simulated with one common target, which is the target of the first (main) simulator. Charge, calibration and
+     * resolution are fitted for each spectrum. The main spectrum's fit window is given by the DE parameters, all others
+     * use the window set in their simulator.
+     */
+    public GAEngine(List<SpectrumSimulator> spectrumSimulators, DEParameter deParameter,
+                    CalculationSetup calculationSetup){
+
+        this.spectrumSimulator  = spectrumSimulators.get(0)                                               ;
+        this.spectrumSimulators = new ArrayList<>(spectrumSimulators)                                     ;
+        this.simulationKernel   = this.spectrumSimulator.getSimulationKernel()                            ;
         this.deParameter        = deParameter                                                             ;
         fitnessPlotter          = new FitnessPlotter()                                                    ;
         parameterPlotter        = new ParameterPlotter()                                                  ;
@@ -45,39 +68,84 @@ public class GAEngine {
         processors = Runtime.getRuntime().availableProcessors();
         System.out.println("Available processors: " + processors);
 
-        int length = spectrumSimulator.experimentalSpectrum.length;
-        originalSpectrum = new double[length];
-        System.arraycopy(spectrumSimulator.experimentalSpectrum,0, originalSpectrum,0,length);
+        int numberOfSpectra = spectrumSimulators.size();
+        originalSpectra = new double[numberOfSpectra][];
+        for (int i=0; i<numberOfSpectra; i++) {
+            originalSpectra[i] = spectrumSimulators.get(i).experimentalSpectrum.clone();
+        }
 
         if (deParameter.numBins > 1) reBin(deParameter.numBins);
 
-        population = new Population(spectrumSimulator, deParameter.populationSize);
+        //Worker threads are kept for the whole fit, so their simulation workspaces can be reused. They are stopped
+        //by shutdown() when the fit ends.
+        if (executorService == null) {
+            executorService = Executors.newFixedThreadPool(processors, runnable -> {
+                Thread thread = new Thread(runnable, "GA-Simulation");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        //Stopping tables of all spectra cover the highest beam energy, so spectra of different energies share them
+        double EMax = 0.0d;
+        for (SpectrumSimulator simulator : spectrumSimulators) {
+            EMax = Math.max(EMax, simulator.getExperimentalSetup().getE0());
+        }
+
+        simulationInputs = new ArrayList<>(numberOfSpectra);
+        for (SpectrumSimulator simulator : spectrumSimulators) {
+            simulationInputs.add(simulator.getSimulationInput().getStoppingTableVariant(EMax));
+        }
+
+        population = new Population(simulationKernel, simulationInputs, deParameter.populationSize,
+                deParameter.solveCharge);
 
         fitnessPlotter.clear();
         parameterPlotter.clear();
         generationCounter = 0;
         totalTime = 0;
+        numberOfSimulations = 0;
+        numberOfEarlyRejections = 0;
         lastMillis = System.currentTimeMillis();
 
         stop = false;
     }
 
+    /**
+     * Stops the worker threads of the fit, their simulation workspaces are released with them. A following
+     * initialize() starts new ones.
+     */
+    public void shutdown(){
+
+        if (executorService != null) {
+            executorService.shutdown();
+            executorService = null;
+        }
+    }
+
     public void reset(){
 
         int numBins = deParameter.numBins;
-        double[] experimentalSpectrum;
-        int length = originalSpectrum.length;
-        experimentalSpectrum = new double[length];
-        System.arraycopy(originalSpectrum,0, experimentalSpectrum,0,length);
-
-        spectrumSimulator.getDetectorCalibration().scaleFactorDown(numBins);
 
         deParameter.startCH *= numBins;
         deParameter.endCH   *= numBins;
 
-        spectrumSimulator.setStartChannel(deParameter.startCH);
-        spectrumSimulator.setStopChannel(deParameter.endCH);
-        spectrumSimulator.setExperimentalSpectrum(experimentalSpectrum);
+        for (int i=0; i<spectrumSimulators.size(); i++) {
+
+            SpectrumSimulator simulator = spectrumSimulators.get(i);
+            double[] experimentalSpectrum = originalSpectra[i].clone();
+
+            simulator.getDetectorCalibration().scaleFactorDown(numBins);
+
+            if (i == 0) {
+                simulator.setStartChannel(deParameter.startCH);
+                simulator.setStopChannel(deParameter.endCH);
+            } else {
+                simulator.setStartChannel(simulator.getStartChannel() * numBins);
+                simulator.setStopChannel(simulator.getStopChannel() * numBins);
+            }
+            simulator.setExperimentalSpectrum(experimentalSpectrum);
+        }
 
         stop = false;
     }
@@ -224,19 +292,26 @@ public class GAEngine {
 
 
         // Do all simulation work
-        ExecutorService es = Executors.newFixedThreadPool(processors);
+        //A child only replaces its parent if it is at least as fit, so its simulation can be aborted as soon as this
+        //is impossible
         List<Callable<Object>> simList = new ArrayList<>();
-        for (Individual child : children) { simList.add(Executors.callable(new SimulationTask(child))); }
-        try { es.invokeAll(simList, 20, TimeUnit.SECONDS); } catch (InterruptedException e) { e.printStackTrace(); }
-        es.shutdownNow();
-        es = null;
+        index = 0;
+        for (Individual child : children) {
+            double minFitness = deParameter.earlyRejection ? population.getIndividualList().get(index).getFitness() : 0.0d;
+            simList.add(Executors.callable(new SimulationTask(child, minFitness)));
+            index++;
+        }
+        long rejections = simulationKernel.getEarlyRejections();
+        try { executorService.invokeAll(simList, 20, TimeUnit.SECONDS); } catch (InterruptedException e) { e.printStackTrace(); }
+        numberOfEarlyRejections += simulationKernel.getEarlyRejections() - rejections;
+        numberOfSimulations     += (long) children.size() * simulationInputs.size();
         simList = null;
 
         //Replace parents if necessary
         index = 0;
         for (Individual child : children) {
 
-            simTime += child.getSimulationData().getSimulationTime();
+            simTime += child.getSimulationTime();
             double childFitness = child.getFitness();
             double parentFitness = population.getIndividualList().get(index).getFitness();
 
@@ -266,7 +341,8 @@ public class GAEngine {
             for (int i=0; i< numRep; i++) {
                 int ii = (int) (Math.random() * (population.getIndividualList().size()));
                 if (ii != fittestIndex) {
-                    population.getIndividualList().set(ii, new Individual(spectrumSimulator.getDeepCopy(), 1.0d));
+                    population.getIndividualList().set(ii, new Individual(simulationKernel, simulationInputs, 1.0d,
+                            deParameter.solveCharge));
                 }
             }
         }
@@ -350,7 +426,13 @@ public class GAEngine {
 
         sb.append("Generation \t = ").append(generationCounter).append("\n\r");
         sb.append("Avr. sim. time \t = ").append(Helper.dblToDecStr(averageTime, 2)).append(" ms\n\r");
-        sb.append("Total time \t = ").append(Helper.dblToDecStr(totalTime / ms, 2)).append(" s\n\r\n\r");
+        sb.append("Total time \t = ").append(Helper.dblToDecStr(totalTime / ms, 2)).append(" s\n\r");
+
+        StoppingTableCache stoppingTableCache = StoppingTableCache.getSharedInstance();
+        sb.append("Stopping cache \t = ").append(stoppingTableCache.getHits()).append(" hits, ");
+        sb.append(stoppingTableCache.getMisses()).append(" misses\n\r");
+        sb.append("Early rejects \t = ").append(numberOfEarlyRejections).append(" of ").append(numberOfSimulations);
+        sb.append(" simulations\n\r\n\r");
 
         sb.append("DE-Para \t = ");
         sb.append("[N=").append(population.getIndividualList().size()).append(", ");
@@ -380,30 +462,37 @@ public class GAEngine {
 
     private void reBin(int numBins){
 
-        int length = spectrumSimulator.experimentalSpectrum.length;
-        originalSpectrum = new double[length];
-        System.arraycopy(spectrumSimulator.experimentalSpectrum,0, originalSpectrum,0,length);
+        deParameter.startCH /= numBins;
+        deParameter.endCH   /= numBins;
+
+        for (int k=0; k<spectrumSimulators.size(); k++) {
 
-        int newNumCh = length / numBins;
+            SpectrumSimulator simulator = spectrumSimulators.get(k);
 
-        double[] newSpectrum = new double[newNumCh];
+            int length = simulator.experimentalSpectrum.length;
+            int newNumCh = length / numBins;
 
-        for (int i=0; i<newNumCh; i++){
+            double[] newSpectrum = new double[newNumCh];
 
-            double value = 0.0f;
-            for (int j=0; j<numBins; j++){ value += spectrumSimulator.experimentalSpectrum[numBins * i +j]; }
-            newSpectrum[i] = value;
-        }
+            for (int i=0; i<newNumCh; i++){
 
-        spectrumSimulator.getDetectorCalibration().scaleFactorUp(numBins);
+                double value = 0.0f;
+                for (int j=0; j<numBins; j++){ value += simulator.experimentalSpectrum[numBins * i +j]; }
+                newSpectrum[i] = value;
+            }
 
-        deParameter.startCH /= numBins;
-        deParameter.endCH   /= numBins;
+            simulator.getDetectorCalibration().scaleFactorUp(numBins);
 
-        spectrumSimulator.setStartChannel(deParameter.startCH);
-        spectrumSimulator.setStopChannel(deParameter.endCH);
+            if (k == 0) {
+                simulator.setStartChannel(deParameter.startCH);
+                simulator.setStopChannel(deParameter.endCH);
+            } else {
+                simulator.setStartChannel(simulator.getStartChannel() / numBins);
+                simulator.setStopChannel(simulator.getStopChannel() / numBins);
+            }
 
-        spectrumSimulator.setExperimentalSpectrum(newSpectrum);
+            simulator.setExperimentalSpectrum(newSpectrum);
+        }
     }
 }
 
@@ -37,10 +37,15 @@ public class GAEngineWorker extends SwingWorker<Void,Integer>{
     protected Void doInBackground() throws Exception {
 
         setProgress(0);
-        gaEngine.initialize();
 
-        while(running){
-            if (gaEngine.evolve(spectraPlotWindow, fitnessPlotWindow, parameterPlotWindow, infoBox)) setProgress(100);
+        try {
+            gaEngine.initialize();
+
+            while(running){
+                if (gaEngine.evolve(spectraPlotWindow, fitnessPlotWindow, parameterPlotWindow, infoBox)) setProgress(100);
+            }
+        } finally {
+            gaEngine.shutdown();
         }
 
         finished = true;
@@ -2,87 +2,296 @@ package com.ruthelde.GA;
 
 import com.ruthelde.Helper.Helper;
 import com.ruthelde.IBA.Detector.DetectorCalibration;
+import com.ruthelde.IBA.Detector.DetectorSetup;
+import com.ruthelde.IBA.ExperimentalSetup.ExperimentalSetup;
+import com.ruthelde.IBA.Simulator.BrickSpectra;
+import com.ruthelde.IBA.Simulator.ChargeFit;
 import com.ruthelde.IBA.Simulator.SimulationData;
-import com.ruthelde.IBA.Simulator.SpectrumSimulator;
+import com.ruthelde.IBA.Simulator.SimulationInput;
+import com.ruthelde.IBA.Simulator.SimulationKernel;
 import com.ruthelde.Target.Element;
 import com.ruthelde.Target.Layer;
 import com.ruthelde.Target.Target;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ForkJoinTask;
 
+/**
+ * One candidate solution of the DE. Its genome holds one target and, for each fitted spectrum, the charge, detector
+ * calibration and resolution of that spectrum. The first spectrum is the main one, all getters and setters without
+ * spectrum index refer to it.
+ */
 public class Individual {
 
     private Target target;
-    private final DetectorCalibration detectorCalibration;
-    private double charge, resolution;
+    private final DetectorCalibration[] detectorCalibrations;
+    private final double[] charges, resolutions;
+    private final double[] spectrumFitness;
     private double fitness;
+    private long simulationTime;
+    private boolean isotopeCalculation;
+    private final boolean solveCharge;
     private SimulationData simulationData;
-    private final SpectrumSimulator spectrumSimulator;
+    private final SimulationKernel simulationKernel;
+    private final List<SimulationInput> simulationInputs;
+    private final ExperimentalSetup[] experimentalSetups;
+    private final DetectorSetup[] detectorSetups;
+    private final BrickSpectra[] brickSpectra; //Unconvolved spectra of the last simulation, shared with copies
+    private final double[][] brickKeys;        //Parameters the bricks were simulated with, see getBrickKey()
 
-    public Individual(SpectrumSimulator spectrumSimulator, double strength){
+    public Individual(SimulationKernel simulationKernel, SimulationInput simulationInput, double strength){
 
-        this.spectrumSimulator = spectrumSimulator;
+        this(simulationKernel, Collections.singletonList(simulationInput), strength, false);
+    }
+
+    /**
+     * @param simulationInputs one input per spectrum, the target of the first one is used for all spectra
+     * @param solveCharge      if set, the charges are no genes but solved for after each simulation, see simulate()
+     */
+    public Individual(SimulationKernel simulationKernel, List<SimulationInput> simulationInputs, double strength,
+                      boolean solveCharge){
+
+        int numberOfSpectra = simulationInputs.size();
+
+        this.simulationKernel = simulationKernel;
+        this.simulationInputs = simulationInputs;
+        this.solveCharge      = solveCharge;
+
+        this.experimentalSetups   = new ExperimentalSetup[numberOfSpectra]   ;
+        this.detectorSetups       = new DetectorSetup[numberOfSpectra]       ;
+        this.detectorCalibrations = new DetectorCalibration[numberOfSpectra] ;
+        this.charges              = new double[numberOfSpectra]              ;
+        this.resolutions          = new double[numberOfSpectra]              ;
+        this.spectrumFitness      = new double[numberOfSpectra]              ;
+        this.brickSpectra         = new BrickSpectra[numberOfSpectra]        ;
+        this.brickKeys            = new double[numberOfSpectra][]            ;
+
+        SimulationInput mainInput = simulationInputs.get(0);
+
+        this.isotopeCalculation = mainInput.getCalculationSetup().isSimulateIsotopes();
 
         Random rand = new Random();
 
-        this.target = spectrumSimulator.getTarget().getDeepCopy();
+        this.target = mainInput.getTarget();
         this.target.randomize(strength);
 
-        this.detectorCalibration = spectrumSimulator.getDetectorCalibration().getDeepCopy();
-        this.detectorCalibration.randomize(strength);
+        for (int i=0; i<numberOfSpectra; i++) {
+
+            SimulationInput simulationInput = simulationInputs.get(i);
+
+            //Copies of the original setup, used for the parameter limits
+            ExperimentalSetup experimentalSetup = simulationInput.getExperimentalSetup();
+            DetectorSetup     detectorSetup     = simulationInput.getDetectorSetup();
+            experimentalSetups[i] = experimentalSetup;
+            detectorSetups[i]     = detectorSetup;
+
+            detectorCalibrations[i] = simulationInput.getDetectorCalibration();
+            detectorCalibrations[i].randomize(strength);
+
+            //this.charge = experimentalSetup.getMinCharge() + rand.nextDouble() * (experimentalSetup.getMaxCharge() - experimentalSetup.getMinCharge());
+            double charge_min = experimentalSetup.getMinCharge();
+            double charge_max = experimentalSetup.getMaxCharge();
+            double q = experimentalSetup.getCharge() * (1.0d - strength/2.0d + rand.nextDouble()*strength);
+            if (q > charge_max) q = charge_max;
+            if (q < charge_min) q = charge_min;
+            charges[i] = q;
+
+            //this.resolution = detectorSetup.getMinRes() + rand.nextDouble() * (detectorSetup.getMaxRes() - detectorSetup.getMinRes());
+            double res_min = detectorSetup.getMinRes();
+            double res_max = detectorSetup.getMaxRes();
+            double res = detectorSetup.getResolution() * (1.0d - strength/2.0d + rand.nextDouble()*strength);
+            if (res > res_max) res = res_max;
+            if (res < res_min) res = res_min;
+            resolutions[i] = res;
+        }
+    }
 
-        //this.charge = spectrumSimulator.getExperimentalSetup().getMinCharge() + rand.nextDouble() * (spectrumSimulator.getExperimentalSetup().getMaxCharge() - spectrumSimulator.getExperimentalSetup().getMinCharge());
-        double charge_min = spectrumSimulator.getExperimentalSetup().getMinCharge();
-        double charge_max = spectrumSimulator.getExperimentalSetup().getMaxCharge();
-        double q = spectrumSimulator.getCharge() * (1.0d - strength/2.0d + rand.nextDouble()*strength);
-        if (q > charge_max) q = charge_max;
-        if (q < charge_min) q = charge_min;
-        this.charge = q;
+    public void setIsotopeCalculation(boolean isotopeCalculation) {
 
-        //this.resolution = spectrumSimulator.getDetectorSetup().getMinRes() + rand.nextDouble() * (spectrumSimulator.getDetectorSetup().getMaxRes() - spectrumSimulator.getDetectorSetup().getMinRes());
-        double res_min = spectrumSimulator.getDetectorSetup().getMinRes();
-        double res_max = spectrumSimulator.getDetectorSetup().getMaxRes();
-        double res = spectrumSimulator.getDetectorSetup().getResolution() * (1.0d - strength/2.0d + rand.nextDouble()*strength);
-        if (res > res_max) res = res_max;
-        if (res < res_min) res = res_min;
-        this.resolution = res;
+        this.isotopeCalculation = isotopeCalculation;
     }
 
-    public void setIsotopeCalculation(boolean isotopeCalculation) {
+    /**
+     * Calculates the fitness of this individual. The simulated spectra are not kept, they are recalculated on demand
+     * by getSimulationData().
+     */
+    public double simulate(){
 
-        spectrumSimulator.getCalculationSetup().setSimulateIsotopes(isotopeCalculation);
+        return simulate(0.0d);
     }
 
-    public SimulationData simulate(){
+    /**
+     * Same as above, but the simulation is aborted as soon as the fitness can not reach minFitness any more. The
+     * fitness is lower than minFitness then, but not exact.
+     *
+     * Several spectra are simulated in parallel and their fitness values are combined by the harmonic mean, i.e. the
+     * residuals of all spectra, each normalized to its own noise level (LFF), are averaged. The combined fitness can
+     * only reach minFitness if each spectrum reaches minFitness / numberOfSpectra, which is used to abort the
+     * simulation of single spectra. The fitness of an aborted spectrum is too high, so is the combined one, which is
+     * still lower than minFitness.
+     *
+     * If the charges are solved for, each spectrum's charge is set to the one which minimizes its residual within
+     * the charge limits, which needs no further simulation as the yield is proportional to the charge.
+     *
+     * The unconvolved spectra (bricks) of each spectrum are kept and passed on to copies. If only charge and
+     * resolution of a spectrum changed since they were simulated, they are just convolved and scaled again.
+     *
+     * Only the kernel's simulation runs without allocating memory. Each call still creates the variant inputs (copies
+     * of setups and target), the brick keys and, if these changed, a new BrickSpectra.
+     */
+    public double simulate(double minFitness){
+
+        long millis = System.currentTimeMillis();
+
+        int numberOfSpectra = simulationInputs.size();
+
+        if (numberOfSpectra == 1) {
+
+            simulateSpectrum(0, minFitness);
+
+        } else {
+
+            double minSpectrumFitness = minFitness / numberOfSpectra;
+
+            List<ForkJoinTask<?>> tasks = new ArrayList<>(numberOfSpectra);
+            for (int i=0; i<numberOfSpectra; i++) {
+                final int spectrumIndex = i;
+                tasks.add(ForkJoinTask.adapt(() -> simulateSpectrum(spectrumIndex, minSpectrumFitness)));
+            }
+            ForkJoinTask.invokeAll(tasks);
+        }
 
-        spectrumSimulator.setTarget(target);
-        spectrumSimulator.setDetectorCalibration(detectorCalibration);
+        fitness        = combineFitness(spectrumFitness);
+        simulationData = null;
+        simulationTime = System.currentTimeMillis() - millis;
 
-        double oldCharge = spectrumSimulator.getCharge();
-        double oldResolution = spectrumSimulator.getDetectorSetup().getResolution();
-        spectrumSimulator.setCharge(charge);
-        spectrumSimulator.getDetectorSetup().setResolution(resolution);
+        return fitness;
+    }
 
-        simulationData = spectrumSimulator.simulate();
-        fitness = simulationData.getFitness();
+    private void simulateSpectrum(int spectrumIndex, double minFitness){
 
-        spectrumSimulator.setCharge(oldCharge);
-        spectrumSimulator.getDetectorSetup().setResolution(oldResolution);
+        SimulationInput simulationInput = getSimulationInput(spectrumIndex);
 
-        return simulationData;
+        //Bricks of the last simulation are only valid for the same target and calibration, those of unchanged upper
+        //layers are taken over otherwise
+        double[] brickKey = getBrickKey(spectrumIndex);
+        BrickSpectra bricks = brickSpectra[spectrumIndex];
+        if (bricks == null || !bricks.isApplicable(resolutions[spectrumIndex])
+                || !Arrays.equals(brickKey, brickKeys[spectrumIndex])) {
+            int commonLayers = getCommonLayers(brickKey, brickKeys[spectrumIndex]);
+            bricks = commonLayers > 0 ? new BrickSpectra(bricks, commonLayers) : new BrickSpectra();
+            brickSpectra[spectrumIndex] = bricks;
+            brickKeys[spectrumIndex]    = brickKey;
+        }
+
+        if (solveCharge) {
+            ExperimentalSetup experimentalSetup = experimentalSetups[spectrumIndex];
+            ChargeFit chargeFit = simulationKernel.simulateFitnessAtOptimalCharge(simulationInput,
+                    experimentalSetup.getMinCharge(), experimentalSetup.getMaxCharge(), minFitness, bricks);
+            charges[spectrumIndex]         = chargeFit.charge  ;
+            spectrumFitness[spectrumIndex] = chargeFit.fitness ;
+        } else {
+            spectrumFitness[spectrumIndex] = simulationKernel.simulateFitness(simulationInput, minFitness, bricks);
+        }
+    }
+
+    //All parameters the unconvolved spectra of the given spectrum depend on
+    private double[] getBrickKey(int spectrumIndex){
+
+        int size = 3;
+        for (Layer layer : target.getLayerList()) size += 1 + layer.getElementList().size();
+
+        double[] key = new double[size];
+        int i = 0;
+
+        key[i++] = detectorCalibrations[spectrumIndex].getFactor();
+        key[i++] = detectorCalibrations[spectrumIndex].getOffset();
+        key[i++] = isotopeCalculation ? 1.0d : 0.0d;
+
+        for (Layer layer : target.getLayerList()){
+            key[i++] = layer.getArealDensity();
+            for (Element element : layer.getElementList()) key[i++] = element.getRatio();
+        }
+
+        return key;
+    }
+
+    //Number of upper layers for which both brick keys agree, 0 if calibration or isotope mode differ
+    private int getCommonLayers(double[] key, double[] oldKey){
+
+        if (oldKey == null || oldKey.length != key.length) return 0;
+
+        for (int i=0; i<3; i++) if (key[i] != oldKey[i]) return 0;
+
+        int i = 3;
+        int layerIndex = 0;
+
+        for (Layer layer : target.getLayerList()){
+            int end = i + 1 + layer.getElementList().size();
+            for (; i<end; i++) if (key[i] != oldKey[i]) return layerIndex;
+            layerIndex++;
+        }
+
+        return layerIndex;
+    }
+
+    //Harmonic mean of the spectra's fitness values
+    private static double combineFitness(double[] spectrumFitness){
+
+        if (spectrumFitness.length == 1) return spectrumFitness[0];
+
+        double sum = 0.0d;
+        for (double f : spectrumFitness) sum += 1.0d / f;
+
+        return spectrumFitness.length / sum;
     }
 
     public void setSimulationData(SimulationData simulationData){
         this.simulationData = simulationData;
     }
 
-    public SimulationData getSimulationData(){return simulationData;}
+    public SimulationData getSimulationData(){
+
+        if (simulationData == null) simulationData = simulationKernel.simulate(getSimulationInput(0));
+        return simulationData;
+    }
+
+    /**
+     * Simulation of the given spectrum, which is not cached
+     */
+    public SimulationData getSimulationData(int spectrumIndex){
+
+        if (spectrumIndex == 0) return getSimulationData();
+        return simulationKernel.simulate(getSimulationInput(spectrumIndex));
+    }
+
+    public long getSimulationTime(){return simulationTime;}
+
+    private SimulationInput getSimulationInput(int spectrumIndex){
+
+        return simulationInputs.get(spectrumIndex).getVariant(target, detectorCalibrations[spectrumIndex],
+                charges[spectrumIndex], resolutions[spectrumIndex], isotopeCalculation);
+    }
+
+    public int getNumberOfSpectra(){
+        return simulationInputs.size();
+    }
 
     public double getFitness(){
         return fitness;
     }
 
+    /**
+     * Fitness of a single spectrum of the last simulation
+     */
+    public double getFitness(int spectrumIndex){
+        return spectrumFitness[spectrumIndex];
+    }
+
     public void setFitness(double fitness){
         this.fitness = fitness;
     }
@@ -92,36 +301,50 @@ public class Individual {
     }
 
     public void setCharge(double charge){
-        this.charge = charge;
+        charges[0] = charge;
     }
 
     public double getCharge() {
-        return charge;
+        return charges[0];
     }
 
-    public void setResolution(double resolution){this.resolution = resolution;}
+    public double getCharge(int spectrumIndex) {
+        return charges[spectrumIndex];
+    }
+
+    public void setResolution(double resolution){resolutions[0] = resolution;}
+
+    public double getResolution(){return resolutions[0];}
 
-    public double getResolution(){return resolution;}
+    public double getResolution(int spectrumIndex){return resolutions[spectrumIndex];}
 
     public void setCalibrationFactor(double calibrationFactor){
-        detectorCalibration.setFactor(calibrationFactor);
+        detectorCalibrations[0].setFactor(calibrationFactor);
     }
 
     public double getCalibrationFactor(){
-        return detectorCalibration.getFactor();
+        return detectorCalibrations[0].getFactor();
+    }
+
+    public double getCalibrationFactor(int spectrumIndex){
+        return detectorCalibrations[spectrumIndex].getFactor();
     }
 
     public void setCalibrationOffset(double calibrationOffset){
-        detectorCalibration.setOffset(calibrationOffset);
+        detectorCalibrations[0].setOffset(calibrationOffset);
     }
 
     public double getCalibrationOffset(){
-        return detectorCalibration.getOffset();
+        return detectorCalibrations[0].getOffset();
+    }
+
+    public double getCalibrationOffset(int spectrumIndex){
+        return detectorCalibrations[spectrumIndex].getOffset();
     }
 
     public void setDetectorCalibration(DetectorCalibration detectorCalibration){
-        this.detectorCalibration.setFactor(detectorCalibration.getFactor());
-        this.detectorCalibration.setOffset(detectorCalibration.getOffset());
+        this.detectorCalibrations[0].setFactor(detectorCalibration.getFactor());
+        this.detectorCalibrations[0].setOffset(detectorCalibration.getOffset());
     }
 
     public Target getTarget(){
@@ -133,29 +356,35 @@ public class Individual {
         LinkedList<Gene> genes = new LinkedList<>();
         double min, max, val;
 
-        //Charge
-        min = spectrumSimulator.getExperimentalSetup().getMinCharge();
-        max = spectrumSimulator.getExperimentalSetup().getMaxCharge();
-        val = charge;
-        genes.add(new Gene(min,max,val));
-
-        //Calibration Factor
-        min = spectrumSimulator.getDetectorCalibration().getFactorMin();
-        max = spectrumSimulator.getDetectorCalibration().getFactorMax();
-        val = detectorCalibration.getFactor();
-        genes.add(new Gene(min,max,val));
-
-        //Calibration Offset
-        min = spectrumSimulator.getDetectorCalibration().getOffsetMin();
-        max = spectrumSimulator.getDetectorCalibration().getOffsetMax();
-        val = detectorCalibration.getOffset();
-        genes.add(new Gene(min,max,val));
-
-        //Detector Resolution
-        min = spectrumSimulator.getDetectorSetup().getMinRes();
-        max = spectrumSimulator.getDetectorSetup().getMaxRes();
-        val = resolution;
-        genes.add(new Gene(min,max,val));
+        //Parameters of each spectrum
+        for (int i=0; i<simulationInputs.size(); i++){
+
+            //Charge
+            if (!solveCharge) {
+                min = experimentalSetups[i].getMinCharge();
+                max = experimentalSetups[i].getMaxCharge();
+                val = charges[i];
+                genes.add(new Gene(min,max,val));
+            }
+
+            //Calibration Factor
+            min = detectorSetups[i].getCalibration().getFactorMin();
+            max = detectorSetups[i].getCalibration().getFactorMax();
+            val = detectorCalibrations[i].getFactor();
+            genes.add(new Gene(min,max,val));
+
+            //Calibration Offset
+            min = detectorSetups[i].getCalibration().getOffsetMin();
+            max = detectorSetups[i].getCalibration().getOffsetMax();
+            val = detectorCalibrations[i].getOffset();
+            genes.add(new Gene(min,max,val));
+
+            //Detector Resolution
+            min = detectorSetups[i].getMinRes();
+            max = detectorSetups[i].getMaxRes();
+            val = resolutions[i];
+            genes.add(new Gene(min,max,val));
+        }
 
         //Target Model
         for (Layer layer : target.getLayerList()){
@@ -181,21 +410,27 @@ public class Individual {
 
         int geneIndex = 0;
 
-        //Charge
-        charge = genes.get(geneIndex).val;
-        geneIndex++;
+        //Parameters of each spectrum
+        for (int i=0; i<simulationInputs.size(); i++){
 
-        //Calibration Factor
-        detectorCalibration.setFactor(genes.get(geneIndex).val);
-        geneIndex++;
+            //Charge
+            if (!solveCharge) {
+                charges[i] = genes.get(geneIndex).val;
+                geneIndex++;
+            }
 
-        //Calibration Offset
-        detectorCalibration.setOffset(genes.get(geneIndex).val);
-        geneIndex++;
+            //Calibration Factor
+            detectorCalibrations[i].setFactor(genes.get(geneIndex).val);
+            geneIndex++;
+
+            //Calibration Offset
+            detectorCalibrations[i].setOffset(genes.get(geneIndex).val);
+            geneIndex++;
 
-        //Detector Resolution
-        resolution = genes.get(geneIndex).val;
-        geneIndex++;
+            //Detector Resolution
+            resolutions[i] = genes.get(geneIndex).val;
+            geneIndex++;
+        }
 
         //Target Model
         for (Layer layer : target.getLayerList()){
@@ -215,28 +450,48 @@ public class Individual {
 
         setGenes(individual.getGenes());
         setFitness(individual.getFitness());
-        setSimulationData(individual.getSimulationData().getDeepCopy());
+        System.arraycopy(individual.charges, 0, charges, 0, charges.length);
+        System.arraycopy(individual.spectrumFitness, 0, spectrumFitness, 0, spectrumFitness.length);
+        System.arraycopy(individual.brickSpectra, 0, brickSpectra, 0, brickSpectra.length);
+        System.arraycopy(individual.brickKeys, 0, brickKeys, 0, brickKeys.length);
+        setSimulationData(null);
+        simulationTime = individual.getSimulationTime();
     }
 
     public Individual getDeepCopy(){
 
-        Individual result = new Individual(spectrumSimulator, 1.0d);
+        Individual result = new Individual(simulationKernel, simulationInputs, 1.0d, solveCharge);
 
         result.setTarget(target.getDeepCopy());
-        result.setCharge(charge);
-        result.setResolution(resolution);
-        result.setDetectorCalibration(detectorCalibration);
+        for (int i=0; i<simulationInputs.size(); i++) {
+            result.charges[i]     = charges[i]     ;
+            result.resolutions[i] = resolutions[i] ;
+            result.detectorCalibrations[i].setFactor(detectorCalibrations[i].getFactor());
+            result.detectorCalibrations[i].setOffset(detectorCalibrations[i].getOffset());
+        }
+        System.arraycopy(spectrumFitness, 0, result.spectrumFitness, 0, spectrumFitness.length);
+        System.arraycopy(brickSpectra, 0, result.brickSpectra, 0, brickSpectra.length);
+        System.arraycopy(brickKeys, 0, result.brickKeys, 0, brickKeys.length);
         result.setFitness(fitness);
+        result.setIsotopeCalculation(isotopeCalculation);
 
         return result;
     }
 
     public void getInfo(StringBuilder sb, double binningFactor){
 
-        sb.append("Charge \t = ").append(Helper.dblToDecStr(charge, 4)).append("\r\n");
-        sb.append("Resolution \t = ").append(Helper.dblToDecStr(resolution, 4)).append("\r\n");
-        sb.append("Cal.-Factor \t = ").append(Helper.dblToDecStr(detectorCalibration.getFactor()/binningFactor, 4)).append("\r\n");
-        sb.append("Cal.-Offset \t = ").append(Helper.dblToDecStr(detectorCalibration.getOffset(), 4)).append("\r\n\n\r");
+        for (int i=0; i<simulationInputs.size(); i++) {
+
+            if (simulationInputs.size() > 1) {
+                sb.append("Spectrum ").append(i + 1).append(" \t = fitness ");
+                sb.append(Helper.dblToDecStr(spectrumFitness[i], 2)).append("\r\n");
+            }
+
+            sb.append("Charge \t = ").append(Helper.dblToDecStr(charges[i], 4)).append("\r\n");
+            sb.append("Resolution \t = ").append(Helper.dblToDecStr(resolutions[i], 4)).append("\r\n");
+            sb.append("Cal.-Factor \t = ").append(Helper.dblToDecStr(detectorCalibrations[i].getFactor()/binningFactor, 4)).append("\r\n");
+            sb.append("Cal.-Offset \t = ").append(Helper.dblToDecStr(detectorCalibrations[i].getOffset(), 4)).append("\r\n\n\r");
+        }
 
         Target temp = target.getDeepCopy();
         temp.getInfo(sb);
@@ -15,6 +15,8 @@ public class DEParameter implements Serializable {
     public  static final double DEFAULT_END_FITNESS = 0.0d  ;
     public  static final double DEFAULT_END_GEN     = 0.0d  ;
     public  static final double DEFAULT_ISO_TIME    = 0.0d  ;
+    public  static final boolean DEFAULT_EARLY_REJECT = true ;
+    public  static final boolean DEFAULT_SOLVE_CHARGE = false ;
 
     public int populationSize;
     public double F, CR, THR;
@@ -24,6 +26,12 @@ public class DEParameter implements Serializable {
 
     public double endTime, endFitness, endGeneration, isotopeTime;
 
+    //Abort the simulation of a child as soon as it can not beat its parent any more
+    public boolean earlyRejection;
+
+    //Solve for the optimal charge after each simulation instead of searching it as gene
+    public boolean solveCharge;
+
 
     public DEParameter(){
 
@@ -38,6 +46,8 @@ public class DEParameter implements Serializable {
         endFitness     = DEFAULT_END_FITNESS ;
         endGeneration  = DEFAULT_END_GEN     ;
         isotopeTime    = DEFAULT_ISO_TIME    ;
+        earlyRejection = DEFAULT_EARLY_REJECT ;
+        solveCharge    = DEFAULT_SOLVE_CHARGE ;
     }
 }
 
@@ -1,21 +1,34 @@
 package com.ruthelde.GA;
 
-import com.ruthelde.IBA.Simulator.SpectrumSimulator;
+import com.ruthelde.IBA.Simulator.SimulationInput;
+import com.ruthelde.IBA.Simulator.SimulationKernel;
+import java.util.Collections;
 import java.util.LinkedList;
+import java.util.List;
 
 public class Population {
 
     private final LinkedList<Individual> individualList;
 
-    public Population(SpectrumSimulator spectrumSimulator, int size){
+    public Population(SimulationKernel simulationKernel, SimulationInput simulationInput, int size){
+
+        this(simulationKernel, Collections.singletonList(simulationInput), size, false);
+    }
+
+    /**
+     * Population for a joint fit of several spectra (one input per spectrum) with one common target. If solveCharge
+     * is set, the charges are solved for instead of being part of the genome.
+     */
+    public Population(SimulationKernel simulationKernel, List<SimulationInput> simulationInputs, int size,
+                      boolean solveCharge){
 
         individualList = new LinkedList<>();
 
         for (int i = 0; i < size; i++){
             if (i < 3*size/4) {
-                individualList.add(new Individual(spectrumSimulator.getDeepCopy(), 0.01d));
+                individualList.add(new Individual(simulationKernel, simulationInputs, 0.01d, solveCharge));
             } else{
-                individualList.add(new Individual(spectrumSimulator.getDeepCopy(), 1.0d));
+                individualList.add(new Individual(simulationKernel, simulationInputs, 1.0d, solveCharge));
             }
         }
 
@@ -3,14 +3,23 @@ package com.ruthelde.GA;
 public class SimulationTask implements Runnable {
 
     private Individual individual;
+    private double minFitness;
 
     public SimulationTask(Individual individual){
+        this(individual, 0.0d);
+    }
+
+    /**
+     * The simulation is aborted as soon as the individual can not reach minFitness any more (0 = never abort)
+     */
+    public SimulationTask(Individual individual, double minFitness){
         this.individual = individual;
+        this.minFitness = minFitness;
     }
 
     public void run() {
         try {
-            individual.simulate();
+            individual.simulate(minFitness);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -11,12 +11,23 @@ public class CalculationSetup {
     public static final ChargeFractionMode      DEFAULT_CHARGE_FRACTION_MODE     = ChargeFractionMode.LINEAR     ;
     public static final boolean                 DEFAULT_USE_LOOK_UP_TABLE        = true                          ;
     public static final boolean                 DEFAULT_SIMULATE_ISOTOPES        = true                          ;
+    public static final ConvolutionMode         DEFAULT_CONVOLUTION_MODE         = ConvolutionMode.FAST          ;
+    public static final double                  DEFAULT_CONVOLUTION_TOLERANCE    = 1.0E-3                        ;
+    public static final boolean                 DEFAULT_PARALLEL_ISOTOPES        = false                         ;
+    public static final double                  DEFAULT_STOPPING_TABLE_TOLERANCE = 1.0E-4                        ;
+    public static final boolean                 DEFAULT_SIMULATE_FIT_WINDOW_ONLY = true                          ;
+    public static final boolean                 DEFAULT_SIMULATE_FOIL            = false                         ;
+    public static final double                  DEFAULT_BRICK_TOLERANCE          = 1.0E-3                        ;
 
     private StoppingCalculationMode stoppingPowerCalculationMode ;
     private CompoundCalculationMode compoundCalculationMode      ;
     private ScreeningMode           screeningMode                ;
     private StragglingMode          stragglingMode               ;
     private ChargeFractionMode      chargeFractionMode           ;
+    private ConvolutionMode         convolutionMode              ;
+    private double                  convolutionTolerance         ;
+    private double                  stoppingTableTolerance       ;
+    private double                  brickTolerance               ;
 
     private double[]                correctionFactors            ;
 
@@ -24,7 +35,7 @@ public class CalculationSetup {
         return showIsotopes;
     }
 
-    private boolean useLookUpTable, simulateIsotopes, showIsotopes, showLayers, showElements;
+    private boolean useLookUpTable, simulateIsotopes, parallelIsotopes, simulateFitWindowOnly, simulateFoil, showIsotopes, showLayers, showElements;
 
     public CalculationSetup() {
         this.stoppingPowerCalculationMode = DEFAULT_STOPPING_MODE            ;
@@ -34,6 +45,13 @@ public class CalculationSetup {
         this.chargeFractionMode           = DEFAULT_CHARGE_FRACTION_MODE     ;
         this.useLookUpTable               = DEFAULT_USE_LOOK_UP_TABLE        ;
         this.simulateIsotopes             = DEFAULT_SIMULATE_ISOTOPES        ;
+        this.parallelIsotopes             = DEFAULT_PARALLEL_ISOTOPES        ;
+        this.convolutionMode              = DEFAULT_CONVOLUTION_MODE         ;
+        this.convolutionTolerance         = DEFAULT_CONVOLUTION_TOLERANCE    ;
+        this.stoppingTableTolerance       = DEFAULT_STOPPING_TABLE_TOLERANCE ;
+        this.simulateFitWindowOnly        = DEFAULT_SIMULATE_FIT_WINDOW_ONLY ;
+        this.simulateFoil                 = DEFAULT_SIMULATE_FOIL            ;
+        this.brickTolerance               = DEFAULT_BRICK_TOLERANCE          ;
         this.correctionFactors            = null                             ;
     }
 
@@ -53,6 +71,17 @@ public class CalculationSetup {
         return this.simulateIsotopes;
     }
 
+    /**
+     * If set, the isotopes of one spectrum are simulated and convoluted concurrently on the common fork/join pool.
+     */
+    public void setParallelIsotopes(boolean parallelIsotopes) {
+        this.parallelIsotopes = parallelIsotopes;
+    }
+
+    public boolean isParallelIsotopes() {
+        return this.parallelIsotopes;
+    }
+
     public void setShowIsotopes(boolean showIsotopes) {
         this.showIsotopes = showIsotopes;
     }
@@ -123,6 +152,83 @@ public class CalculationSetup {
         return chargeFractionMode;
     }
 
+    public void setConvolutionMode(ConvolutionMode convolutionMode) {
+        if (convolutionMode != null) {
+            this.convolutionMode = convolutionMode;
+        }
+    }
+
+    public ConvolutionMode getConvolutionMode() {
+        return convolutionMode;
+    }
+
+    /**
+     * Maximum relative deviation of the total (detector + straggling) width which is accepted when channels are
+     * grouped to share one convolution kernel. A value of 0 reproduces the direct convolution.
+     */
+    public void setConvolutionTolerance(double convolutionTolerance) {
+        if (convolutionTolerance >= 0.0d) {
+            this.convolutionTolerance = convolutionTolerance;
+        }
+    }
+
+    public double getConvolutionTolerance() {
+        return convolutionTolerance;
+    }
+
+    /**
+     * Maximum relative error of the stopping look up table. The table is refined until all interval midpoints are
+     * reproduced within this tolerance.
+     */
+    public void setStoppingTableTolerance(double stoppingTableTolerance) {
+        if (stoppingTableTolerance > 0.0d) {
+            this.stoppingTableTolerance = stoppingTableTolerance;
+        }
+    }
+
+    public double getStoppingTableTolerance() {
+        return stoppingTableTolerance;
+    }
+
+    /**
+     * Accuracy of the brick end search, as fraction of the channel width. A brick ends where the detected energy is
+     * within this tolerance of the channel boundary. With the default the search is more accurate than the former
+     * stepping in 5 nm steps for all layers of BrickEndSearchBenchmark and still needs about one evaluation per brick,
+     * 1E-2 is less accurate for H in thick layers.
+     */
+    public void setBrickTolerance(double brickTolerance) {
+        if (brickTolerance > 0.0d) {
+            this.brickTolerance = brickTolerance;
+        }
+    }
+
+    public double getBrickTolerance() {
+        return brickTolerance;
+    }
+
+    /**
+     * If set, fitness evaluations (e.g. by the GA) only simulate the bricks and channels which contribute to the fit
+     * window. Full simulations for display are not affected.
+     */
+    public void setSimulateFitWindowOnly(boolean simulateFitWindowOnly) {
+        this.simulateFitWindowOnly = simulateFitWindowOnly;
+    }
+
+    public boolean isSimulateFitWindowOnly() {
+        return simulateFitWindowOnly;
+    }
+
+    /**
+     * If set, the back scattered ions pass the foil in front of the detector
+     */
+    public void setSimulateFoil(boolean simulateFoil) {
+        this.simulateFoil = simulateFoil;
+    }
+
+    public boolean isSimulateFoil() {
+        return simulateFoil;
+    }
+
     public double[] getCorrectionFactors(){
         return correctionFactors;
     }
@@ -148,10 +254,17 @@ public class CalculationSetup {
         result.setChargeFractionMode(this.chargeFractionMode);
         result.setUseLookUpTable(this.useLookUpTable);
         result.setSimulateIsotopes(this.simulateIsotopes);
+        result.setParallelIsotopes(this.parallelIsotopes);
         result.setShowIsotopes(this.showIsotopes);
         result.setShowLayers(this.showLayers);
         result.setShowElements(this.showElements);
         result.setCorrectionFactors(this.correctionFactors);
+        result.setConvolutionMode(this.convolutionMode);
+        result.setConvolutionTolerance(this.convolutionTolerance);
+        result.setStoppingTableTolerance(this.stoppingTableTolerance);
+        result.setSimulateFitWindowOnly(this.simulateFitWindowOnly);
+        result.setSimulateFoil(this.simulateFoil);
+        result.setBrickTolerance(this.brickTolerance);
 
         return result;
     }
@@ -0,0 +1,20 @@
+package com.ruthelde.IBA.CalculationSetup;
+
+public enum ConvolutionMode {
+
+    DIRECT("Direct"), FAST("Grouped Kernel / FFT");
+
+    private final String displayed_text;
+
+    private ConvolutionMode(String s)
+    {
+        displayed_text = s;
+    }
+
+    @Override
+    public String toString()
+    {
+        return displayed_text;
+    }
+
+}
@@ -11,6 +11,7 @@ import java.io.Serializable;
 public class DataFile implements Serializable {
 
     public Target target;
+    public Target foil;
     public ExperimentalSetup experimentalSetup;
     public CalculationSetup calculationSetup;
     public DetectorSetup detectorSetup;
@@ -19,10 +20,11 @@ public class DataFile implements Serializable {
     public String spectrumName;
     public WindowPositions windowPositions;
 
-    public DataFile(Target target, ExperimentalSetup experimentalSetup, CalculationSetup calculationSetup,
+    public DataFile(Target target, Target foil, ExperimentalSetup experimentalSetup, CalculationSetup calculationSetup,
                     DetectorSetup detectorSetup, DEParameter deParameter, double[] experimentalSpectrum, String spectrumName,
                     WindowPositions windowPositions){
         this.target = target;
+        this.foil = foil;
         this.experimentalSetup = experimentalSetup;
         this.calculationSetup = calculationSetup;
         this.detectorSetup = detectorSetup;
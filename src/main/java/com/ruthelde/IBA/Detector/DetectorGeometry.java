@@ -0,0 +1,67 @@
+package com.ruthelde.IBA.Detector;
+
+import java.io.Serializable;
+
+/**
+ * Position and setup of one detector. Several detectors at different scattering angles can record the same sample,
+ * beam and target (incl. the incoming angle alpha) are then shared by all of them.
+ */
+public class DetectorGeometry implements Serializable {
+
+    private final static double DEFAULT_THETA = 170.0d ;
+    private final static double DEFAULT_BETA  =  10.0d ;
+
+    private double          theta         ; //Scattering angle
+    private double          beta          ; //Exit angle with respect to the sample normal
+    private DetectorSetup   detectorSetup ; //Calibration, resolution and solid angle
+
+    public DetectorGeometry() {
+
+        this.setTheta(DEFAULT_THETA);
+        this.setBeta(DEFAULT_BETA);
+        this.detectorSetup = new DetectorSetup();
+    }
+
+    public DetectorGeometry(double theta, double beta, DetectorSetup detectorSetup) {
+
+        this();
+        this.setTheta(theta);
+        this.setBeta(beta);
+        this.setDetectorSetup(detectorSetup);
+    }
+
+    public void setTheta(double theta) {
+        if (theta > 90.0d && theta <= 180.0d) this.theta = theta;
+    }
+
+    public double getTheta() {
+        return theta;
+    }
+
+    public void setBeta(double beta) {
+        if (beta >= 0.0d && beta < 90.0d) this.beta = beta;
+    }
+
+    public double getBeta() {
+        return beta;
+    }
+
+    public void setDetectorSetup(DetectorSetup detectorSetup) {
+        if (detectorSetup != null) this.detectorSetup = detectorSetup;
+    }
+
+    public DetectorSetup getDetectorSetup() {
+        return detectorSetup;
+    }
+
+    public DetectorGeometry getDeepCopy(){
+
+        DetectorGeometry result = new DetectorGeometry();
+
+        result.setTheta(this.theta);
+        result.setBeta(this.beta);
+        result.setDetectorSetup(this.detectorSetup.getDeepCopy());
+
+        return result;
+    }
+}
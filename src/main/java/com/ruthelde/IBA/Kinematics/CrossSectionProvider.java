@@ -0,0 +1,115 @@
+package com.ruthelde.IBA.Kinematics;
+
+import com.ruthelde.IBA.CalculationSetup.ScreeningMode;
+import com.ruthelde.Target.Projectile;
+
+/**
+ * Back scattering cross section (positive kinematic solution) for one projectile, isotope and scattering angle.
+ * All angle and mass dependent terms are calculated once, so that the cross section at energy E reduces to
+ * sigma(E) = sigma_R / E^2 * F(E), where the screening correction F is a rational function of 1/E.
+ * Results are identical to KinematicsCalculator.getBSCrossSection(projectile, Z2, M2, theta, screeningMode, 0).
+ */
+public class CrossSectionProvider {
+
+    private static final double FACTOR_BS = 5.1837436E6 ;
+
+    //Input the provider was made for, see matches()
+    private final int           Z1            ;
+    private final double        M1            ;
+    private final int           Z2            ;
+    private final double        M2            ;
+    private final double        theta         ;
+
+    private final ScreeningMode screeningMode ;
+    private final double        sigmaR        ; //Rutherford cross section * E^2
+    private final double        c             ; //L'Ecuyer: F = 1 - c / E
+    private final double        v             ; //Andersen: V1 / ECM = v / E
+    private final double        s2            ; //Andersen: 1 / (4 * sin^2(thetaCM / 2))
+
+    public CrossSectionProvider(Projectile projectile, int Z2, double M2, double theta, ScreeningMode screeningMode) {
+
+        double Z1      = projectile.getZ()                ;
+        double M1      = projectile.getM()                ;
+        double thetaLS = Math.toRadians(theta)            ;
+        double sin     = Math.sin(thetaLS)                ;
+        double sqrt    = Math.sqrt(M2*M2 - M1*M1*sin*sin) ;
+
+        double sigma  = sqrt + M2*Math.cos(thetaLS);
+        sigma        *= sigma;
+        sigma        /= M2*Math.pow(sin, 4)*sqrt;
+        sigma        *= FACTOR_BS * (Z1*Z1*Z2*Z2);
+
+        double ECMFactor = M2 / (M1+M2); //ECM = ECMFactor * E
+
+        double _c = 0.0d, _v = 0.0d, _s2 = 0.0d;
+
+        switch (screeningMode) {
+
+            case LECUYER:
+                _c = 0.04873 * Z1 * Math.pow(Z2,4.0/3.0) / ECMFactor;
+                break;
+
+            case ANDERSON:
+                double thetaCM = thetaLS + Math.asin(M1/M2 * sin);
+                double V1      = 0.04872192 * Z1 * Z2 * Math.sqrt(Math.pow(Z1,2.0d/3.0d) + Math.pow(Z2,2.0d/3.0d));
+                double sinCM   = 2.0d * Math.sin(thetaCM/2.0d);
+                _v  = V1 / ECMFactor;
+                _s2 = 1.0d / (sinCM * sinCM);
+                break;
+
+            case NONE:
+                break;
+
+            default:
+                sigma = 0.0d;
+                break;
+        }
+
+        this.Z1            = projectile.getZ() ;
+        this.M1            = M1                ;
+        this.Z2            = Z2                ;
+        this.M2            = M2                ;
+        this.theta         = theta             ;
+        this.screeningMode = screeningMode     ;
+        this.sigmaR        = sigma             ;
+        this.c             = _c                ;
+        this.v             = _v                ;
+        this.s2            = _s2               ;
+    }
+
+    /**
+     * True if the provider was made for the given projectile, isotope, angle and screening, so it can be reused
+     */
+    public boolean matches(Projectile projectile, int Z2, double M2, double theta, ScreeningMode screeningMode) {
+
+        return this.Z1 == projectile.getZ() && this.M1 == projectile.getM() && this.Z2 == Z2 && this.M2 == M2
+                && this.theta == theta && this.screeningMode == screeningMode;
+    }
+
+    /**
+     * Cross section at projectile energy E [keV]
+     */
+    public double getCrossSection(double E) {
+
+        double result = sigmaR / (E*E);
+
+        switch (screeningMode) {
+
+            case LECUYER:
+                result *= 1.0d - c / E;
+                break;
+
+            case ANDERSON:
+                double u = v / E;
+                double F = 1.0d + 0.5d * u;
+                double D = 1.0d + u + u * u * s2;
+                result  *= (F * F) / (D * D);
+                break;
+
+            default:
+                break;
+        }
+
+        return result;
+    }
+}
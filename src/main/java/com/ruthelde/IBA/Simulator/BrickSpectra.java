@@ -0,0 +1,287 @@
+package com.ruthelde.IBA.Simulator;
+
+import java.util.Arrays;
+
+/**
+ * Unconvolved isotope spectra (the bricks) and straggling values of one fitness simulation. They only depend on the
+ * target, the setup and the detector calibration, so a simulation which only differs in resolution or charge can
+ * reuse them and just redo the convolution and scaling, see SimulationKernel.simulateFitness(input, minFitness,
+ * brickSpectra). Once complete, the content is read only and may be shared by several callers.
+ *
+ * Along with the bricks the state of the brick loop is kept at each layer interface. A simulation of a target which
+ * only differs from the one of a source in deeper layers takes the bricks of the unchanged upper layers from the
+ * source and resumes the brick loop at the first interface whose outcome depends on the changed layers.
+ */
+public class BrickSpectra {
+
+    private BrickSpectra   source        ; //Bricks of a target with the same upper layers, null if there is none
+    private int            sourceLayers  ; //Number of upper layers the target has in common with the source
+
+    private double         charge        ; //Charge the bricks were simulated with
+    private double         maxResolution ; //Largest detector resolution the simulated channel range is sufficient for
+    private int[]          Z             ;
+    private double[]       M             ;
+    private double[][][]   spectra       ; //[isotope][layer][channel - firstChannel], null for empty spectra
+    private int[][]        firstChannel  ;
+    private double[][]     straggling    ;
+    private double[]       lastChannel   ; //Channel of the last brick of each isotope
+    private BrickState[][] states        ; //[isotope][layer] state when entering the layer
+    private BrickState[]   endStates     ; //[isotope] state returned by resume() if the source's bricks are complete
+    private boolean        complete      ;
+
+    public BrickSpectra() {
+        this.complete = false;
+    }
+
+    /**
+     * Bricks of a target which has its first sourceLayers layers (areal density and composition) in common with the
+     * target of the source, the setup and calibration have to be the same.
+     */
+    public BrickSpectra(BrickSpectra source, int sourceLayers) {
+
+        this();
+        this.source       = source       ;
+        this.sourceLayers = sourceLayers ;
+    }
+
+    /**
+     * True if the bricks of all isotopes have been stored and are valid for the given resolution
+     */
+    public boolean isApplicable(double resolution) {
+        return complete && resolution <= maxResolution;
+    }
+
+    void prepare(int numberOfIsotopes, int numberOfLayers, double charge, double maxResolution) {
+
+        this.charge        = charge                                           ;
+        this.maxResolution = maxResolution                                    ;
+        this.Z             = new int[numberOfIsotopes]                        ;
+        this.M             = new double[numberOfIsotopes]                     ;
+        this.spectra       = new double[numberOfIsotopes][][]                 ;
+        this.firstChannel  = new int[numberOfIsotopes][]                      ;
+        this.straggling    = new double[numberOfIsotopes][]                   ;
+        this.lastChannel   = new double[numberOfIsotopes]                     ;
+        this.complete      = false                                            ;
+
+        //The states are allocated once, the brick loop and resume() copy into them
+        if (states == null || states.length != numberOfIsotopes
+                || (numberOfIsotopes > 0 && states[0].length != numberOfLayers)) {
+            states    = new BrickState[numberOfIsotopes][numberOfLayers] ;
+            endStates = new BrickState[numberOfIsotopes]                 ;
+            for (int i=0; i<numberOfIsotopes; i++) {
+                for (int l=0; l<numberOfLayers; l++) states[i][l] = new BrickState(numberOfLayers);
+                endStates[i] = new BrickState(numberOfLayers);
+            }
+        } else {
+            for (BrickState[] isotopeStates : states) for (BrickState state : isotopeStates) state.reached = false;
+        }
+
+        //The source's channel range below the window has to be the same
+        if (source != null && !(source.complete && source.maxResolution == maxResolution
+                && source.spectra.length == numberOfIsotopes && source.states[0].length == numberOfLayers)) {
+            source = null;
+        }
+    }
+
+    void setComplete() {
+        this.complete = true;
+        this.source   = null;
+    }
+
+    double getMaxResolution() {
+        return maxResolution;
+    }
+
+    /**
+     * Stores the bricks of one isotope, only the non zero channel range of each spectrum is copied.
+     */
+    void store(int isotopeIndex, IsotopeFitData isotopeFitData, double channel) {
+
+        int sx = isotopeFitData.spectra.length;
+
+        double[][] isotopeSpectra = new double[sx][] ;
+        int[]      first          = new int[sx]      ;
+
+        for (int j=0; j<sx; j++) {
+
+            first[j] = isotopeFitData.firstChannel[j];
+            int length = isotopeFitData.lastChannel[j] - first[j] + 1;
+
+            if (length > 0) {
+                isotopeSpectra[j] = new double[length];
+                System.arraycopy(isotopeFitData.spectra[j], first[j], isotopeSpectra[j], 0, length);
+            }
+        }
+
+        Z[isotopeIndex]            = isotopeFitData.Z                  ;
+        M[isotopeIndex]            = isotopeFitData.M                  ;
+        spectra[isotopeIndex]      = isotopeSpectra                    ;
+        firstChannel[isotopeIndex] = first                             ;
+        straggling[isotopeIndex]   = isotopeFitData.straggling.clone() ;
+        lastChannel[isotopeIndex]  = channel                           ;
+    }
+
+    /**
+     * State of the brick loop of the given isotope when entering the given layer, to be filled by the brick loop and
+     * stored by storeState()
+     */
+    BrickState getState(int isotopeIndex, int layerIndex) {
+        return states[isotopeIndex][layerIndex];
+    }
+
+    /**
+     * Stores the state of the brick loop after entering a new layer. The values of the (partially filled) current
+     * channel are taken from the isotope's spectra.
+     */
+    void storeState(BrickState state, IsotopeFitData isotopeFitData) {
+
+        int ch = (int) state.channel;
+
+        Arrays.fill(state.partialSpectra, 0.0d);
+        state.partialStraggling = 0.0d;
+
+        if (ch >= 0 && ch < isotopeFitData.straggling.length - 1) {
+            for (int j=0; j<isotopeFitData.spectra.length; j++) {
+                state.partialSpectra[j] = isotopeFitData.spectra[j][ch];
+            }
+            state.partialStraggling = isotopeFitData.straggling[ch];
+        }
+
+        state.reached = true;
+    }
+
+    /**
+     * Copies the bricks of one isotope to the (empty) isotope spectra, scaled to the given charge. Returns the channel
+     * of the last brick.
+     */
+    double restore(int isotopeIndex, IsotopeFitData isotopeFitData, double charge) {
+
+        double     scale          = charge / this.charge       ;
+        double[][] isotopeSpectra = spectra[isotopeIndex]      ;
+        int[]      first          = firstChannel[isotopeIndex] ;
+
+        for (int j=0; j<isotopeSpectra.length; j++) {
+
+            if (isotopeSpectra[j] == null) continue;
+
+            double[] spectrum = isotopeFitData.spectra[j];
+            for (int k=0; k<isotopeSpectra[j].length; k++) spectrum[first[j] + k] = scale * isotopeSpectra[j][k];
+
+            isotopeFitData.firstChannel[j] = first[j]                                ;
+            isotopeFitData.lastChannel[j]  = first[j] + isotopeSpectra[j].length - 1 ;
+        }
+
+        double[] isotopeStraggling = straggling[isotopeIndex];
+        System.arraycopy(isotopeStraggling, 0, isotopeFitData.straggling, 0, isotopeStraggling.length);
+
+        return lastChannel[isotopeIndex];
+    }
+
+    /**
+     * Takes the bricks the isotope has in common with the source, scaled to the given charge, and copies the
+     * corresponding loop states. Returns the state to resume the brick loop from (finished if the source's bricks
+     * are complete for this target) or null if the isotope has to be simulated from the surface.
+     */
+    BrickState resume(int isotopeIndex, IsotopeFitData isotopeFitData, double charge) {
+
+        if (source == null || sourceLayers < 1) return null;
+        if (source.Z[isotopeIndex] != isotopeFitData.Z || source.M[isotopeIndex] != isotopeFitData.M) return null;
+
+        double       scale        = charge / source.charge        ;
+        BrickState[] sourceStates = source.states[isotopeIndex]   ;
+        double[]     c            = isotopeFitData.concentrations ;
+
+        //The loop stops at an interface if the isotope is not contained in any deeper layer. This depends on the
+        //changed layers for all interfaces below the last common layer containing the isotope.
+        int layerIndex = Math.min(sourceLayers, sourceStates.length - 1);
+        while (layerIndex > 1 && c[layerIndex - 1] == 0.0d) layerIndex--;
+
+        //Copy states of all common interfaces
+        for (int l=1; l<=layerIndex; l++) {
+            if (sourceStates[l].reached) states[isotopeIndex][l].setScaled(sourceStates[l], scale);
+        }
+
+        //Source stopped in front of it, for reasons which do not depend on the changed layers
+        if (!sourceStates[layerIndex].reached) {
+
+            BrickState state = endStates[isotopeIndex];
+            state.finished = true;
+            state.channel  = source.restore(isotopeIndex, isotopeFitData, charge);
+
+            for (int l=layerIndex+1; l<sourceStates.length; l++) {
+                if (sourceStates[l].reached) states[isotopeIndex][l].setScaled(sourceStates[l], scale);
+            }
+            return state;
+        }
+
+        //Bricks in front of the state's channel plus the partial content of this channel
+        BrickState state          = states[isotopeIndex][layerIndex]  ;
+        int        ch             = (int) state.channel               ;
+        double[][] isotopeSpectra = source.spectra[isotopeIndex]      ;
+        int[]      first          = source.firstChannel[isotopeIndex] ;
+
+        if (ch < 0 || ch >= isotopeFitData.straggling.length - 1) return state;
+
+        for (int j=0; j<isotopeSpectra.length; j++) {
+
+            if (isotopeSpectra[j] == null) continue;
+
+            int from = Math.max(first[j], ch)                  ;
+            int to   = first[j] + isotopeSpectra[j].length - 1 ;
+
+            if (to < from) continue;
+
+            double[] spectrum = isotopeFitData.spectra[j];
+            for (int k=from; k<=to; k++) spectrum[k] = scale * isotopeSpectra[j][k - first[j]];
+            if (from == ch) spectrum[ch] = state.partialSpectra[j];
+
+            isotopeFitData.firstChannel[j] = from ;
+            isotopeFitData.lastChannel[j]  = to   ;
+        }
+
+        double[] sourceStraggling = source.straggling[isotopeIndex];
+        System.arraycopy(sourceStraggling, ch + 1, isotopeFitData.straggling, ch + 1, sourceStraggling.length - ch - 1);
+        isotopeFitData.straggling[ch] = state.partialStraggling;
+
+        return state;
+    }
+
+    /**
+     * State of the brick loop of one isotope when entering a layer
+     */
+    static class BrickState {
+
+        boolean        reached           ; //The loop entered the layer, all other values are only valid if set
+        boolean        finished          ; //The loop has nothing left to do
+        int            layerIndex        ;
+        double         depth             ;
+        double         E_det             ;
+        double         E_det_b           ;
+        double         channel           ;
+        double         dx                ;
+        double         lowestChannel     ;
+        final double[] partialSpectra    ; //Content of the current channel of all spectra
+        double         partialStraggling ;
+
+        BrickState(int numberOfSpectra) {
+            this.partialSpectra = new double[numberOfSpectra];
+        }
+
+        //Copies the given state, with the partial spectra scaled by the given factor
+        void setScaled(BrickState state, double scale) {
+
+            reached           = state.reached           ;
+            finished          = state.finished          ;
+            layerIndex        = state.layerIndex        ;
+            depth             = state.depth             ;
+            E_det             = state.E_det             ;
+            E_det_b           = state.E_det_b           ;
+            channel           = state.channel           ;
+            dx                = state.dx                ;
+            lowestChannel     = state.lowestChannel     ;
+            partialStraggling = state.partialStraggling ;
+
+            for (int j=0; j<partialSpectra.length; j++) partialSpectra[j] = scale * state.partialSpectra[j];
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.ruthelde.IBA.Simulator;
+
+/**
+ * Fitness of a simulation whose charge was solved for, see SimulationKernel.simulateFitnessAtOptimalCharge()
+ */
+public class ChargeFit {
+
+    public final double charge  ; //µC
+    public final double fitness ;
+
+    public ChargeFit(double charge, double fitness) {
+
+        this.charge  = charge  ;
+        this.fitness = fitness ;
+    }
+}
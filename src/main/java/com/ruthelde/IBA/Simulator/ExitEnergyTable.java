@@ -0,0 +1,261 @@
+package com.ruthelde.IBA.Simulator;
+
+import java.util.Arrays;
+
+/**
+ * Transfer table for the outgoing path of back scattered ions. For a given target and exit angle it maps
+ * (energy at depth, depth) to the energy at the target's surface. Along with the surface energy its derivative
+ * dE_surface/dE is tabulated, which allows cubic Hermite interpolation in energy and directly gives the propagation
+ * of the energy straggling along the outgoing path: str2_surface = (dE_surface/dE)^2 * str2_depth + Z2 * bohr.
+ *
+ * Depth nodes are placed at all layer interfaces and in between with a step width chosen such that the energy
+ * loss between two nodes stays below a fixed fraction of the maximum energy. Each row is derived from the row
+ * above by one midpoint step through the corresponding slab of the layer. No rows are added once the surface
+ * energies of all grid energies have dropped below the cut off energy, so a thick substrate only costs the rows
+ * down to the ions' range. Rows are kept and the row arrays grown as needed.
+ */
+public class ExitEnergyTable {
+
+    private static final int NUM_ENERGY_STEPS = 256 ; //Energy grid resolution
+    private static final int NUM_LOSS_STEPS   = 256 ; //Max. energy loss between two depth nodes = EMax / NUM_LOSS_STEPS
+    private static final int MIN_ROWS         = 64  ; //Rows allocated at first
+
+    private double     dE             ;
+    private int        numberOfDepths ;
+    private double[]   depth          ;
+    private double[][] surfaceEnergy  ;
+    private double[][] derivative     ;
+    private double[][] stragglingBohr ;
+    private int[]      steps          ; //Number of steps per layer
+    private double[]   stepWidth      ; //Step width per layer
+
+    public ExitEnergyTable() {
+
+        numberOfDepths = 0               ;
+        steps          = new int[0]      ;
+        stepWidth      = new double[0]   ;
+        depth          = new double[0]   ;
+        surfaceEnergy  = new double[0][] ;
+        derivative     = new double[0][] ;
+        stragglingBohr = new double[0][] ;
+    }
+
+    /**
+     * @param layerThicknesses  thickness of all layers [nm]
+     * @param stopping          stopping of all layers on the energy grid of this table [keV/nm]
+     *                          (E_i = i * EMax / (getNumberOfEnergies() - 1))
+     * @param bohrFactors       Bohr straggling of all layers per nm and per unit of Z2 [keV^2/nm]
+     * @param EMax              maximum energy covered by the table [keV]
+     * @param EMin              cut off energy [keV], the table ends at the first depth from which no ion reaches the
+     *                          surface with more than EMin
+     * @param beta              exit angle [deg]
+     */
+    public void calculate(double[] layerThicknesses, double[][] stopping, double[] bohrFactors, double EMax,
+                          double EMin, double beta) {
+
+        this.dE = EMax / NUM_ENERGY_STEPS;
+
+        int    numberOfLayers = layerThicknesses.length         ;
+        double cosBeta        = Math.cos(Math.toRadians(beta))  ;
+        double maxLoss        = EMax / NUM_LOSS_STEPS           ;
+
+        //Determine depth nodes
+        if (steps.length < numberOfLayers) {
+            steps     = new int[numberOfLayers]    ;
+            stepWidth = new double[numberOfLayers] ;
+        }
+        for (int l=0; l<numberOfLayers; l++) {
+
+            double SMax = 0.0d;
+            for (int e=0; e<=NUM_ENERGY_STEPS; e++) SMax = Math.max(SMax, stopping[l][e]);
+            SMax /= cosBeta;
+
+            int n = 1;
+            if (SMax > 0.0d) n = (int) Math.ceil(layerThicknesses[l] * SMax / maxLoss);
+            if (n < 1) n = 1;
+
+            steps[l]     = n;
+            stepWidth[l] = layerThicknesses[l] / n;
+        }
+
+        if (depth.length < MIN_ROWS) allocate(MIN_ROWS);
+
+        double[]   _depth          = depth          ;
+        double[][] _surfaceEnergy  = surfaceEnergy  ;
+        double[][] _derivative     = derivative     ;
+        double[][] _stragglingBohr = stragglingBohr ;
+
+        //Surface row: identity
+        _depth[0] = 0.0d;
+
+        for (int e=0; e<=NUM_ENERGY_STEPS; e++) {
+            _surfaceEnergy[0][e]  = e * dE ;
+            _derivative[0][e]     = 1.0d   ;
+            _stragglingBohr[0][e] = 0.0d   ;
+        }
+
+        int     row     = 0     ;
+        boolean stopped = false ;
+
+        for (int l=0; l<numberOfLayers && !stopped; l++) {
+
+            double h      = stepWidth[l]              ;
+            double path   = h / cosBeta               ;
+            double bohr   = bohrFactors[l] * path     ;
+            double[] S    = stopping[l]               ;
+
+            for (int s=0; s<steps[l] && !stopped; s++) {
+
+                if (row + 1 == _depth.length) {
+                    allocate(2 * _depth.length);
+                    _depth          = depth          ;
+                    _surfaceEnergy  = surfaceEnergy  ;
+                    _derivative     = derivative     ;
+                    _stragglingBohr = stragglingBohr ;
+                }
+
+                double[] Es_prev = _surfaceEnergy[row]  ;
+                double[] D_prev  = _derivative[row]     ;
+                double[] B_prev  = _stragglingBohr[row] ;
+
+                double[] Es = _surfaceEnergy[row+1]  ;
+                double[] D  = _derivative[row+1]     ;
+                double[] B  = _stragglingBohr[row+1] ;
+
+                Es[0] = D[0] = B[0] = 0.0d;
+                stopped = true;
+
+                for (int e=1; e<=NUM_ENERGY_STEPS; e++) {
+
+                    //Midpoint step from the deeper node (energy E) to the node above (energy E_out)
+                    double E     = e * dE                                        ;
+                    double S_in  = interpolate(S, E)                             ;
+                    double E_mid = E - 0.5d * path * S_in                        ;
+                    double E_out = E - path * interpolate(S, E_mid)              ;
+
+                    if (E_mid <= 0.0d || E_out <= 0.0d) {
+                        Es[e] = D[e] = B[e] = 0.0d;
+                        continue;
+                    }
+
+                    double S_out = interpolate(S, E_out);
+                    double ratio = S_in > 0.0d ? S_out / S_in : 1.0d;
+                    double d     = interpolate(D_prev, E_out);
+
+                    Es[e] = interpolate(Es_prev, D_prev, E_out)                  ;
+                    D[e]  = d * ratio                                            ;
+                    B[e]  = d * d * bohr + interpolate(B_prev, E_out)            ;
+
+                    if (Es[e] > EMin) stopped = false;
+                }
+
+                row++;
+                _depth[row] = _depth[row-1] + h;
+            }
+
+            //Avoid rounding errors at the interfaces
+            if (!stopped) {
+                double sum = 0.0d;
+                for (int i=0; i<=l; i++) sum += layerThicknesses[i];
+                _depth[row] = sum;
+            }
+        }
+
+        this.numberOfDepths = row + 1;
+    }
+
+    //Grows the row arrays, existing rows are kept
+    private void allocate(int rows) {
+
+        int oldRows = depth.length;
+
+        depth          = Arrays.copyOf(depth, rows)          ;
+        surfaceEnergy  = Arrays.copyOf(surfaceEnergy, rows)  ;
+        derivative     = Arrays.copyOf(derivative, rows)     ;
+        stragglingBohr = Arrays.copyOf(stragglingBohr, rows) ;
+
+        for (int i=oldRows; i<rows; i++) {
+            surfaceEnergy[i]  = new double[NUM_ENERGY_STEPS+1] ;
+            derivative[i]     = new double[NUM_ENERGY_STEPS+1] ;
+            stragglingBohr[i] = new double[NUM_ENERGY_STEPS+1] ;
+        }
+    }
+
+    public static int getNumberOfEnergies() {
+        return NUM_ENERGY_STEPS + 1;
+    }
+
+    /**
+     * Energy [keV] at the target's surface of an ion moving outwards with energy E [keV] at depth x [nm]
+     */
+    public double getSurfaceEnergy(double E, double x) {
+        return lookUp(surfaceEnergy, derivative, E, x);
+    }
+
+    /**
+     * Factor by which an energy straggling variance at depth x is scaled until the ion reaches the surface
+     */
+    public double getStragglingGain(double E, double x) {
+        double d = lookUp(derivative, null, E, x);
+        return d * d;
+    }
+
+    /**
+     * Bohr straggling variance [keV^2] accumulated on the way from depth x to the surface (per unit of Z2)
+     */
+    public double getStragglingBohr(double E, double x) {
+        return lookUp(stragglingBohr, null, E, x);
+    }
+
+    private double lookUp(double[][] table, double[][] slopes, double E, double x) {
+
+        if (E <= 0.0d || x < 0.0d || x > depth[numberOfDepths-1]) return 0.0d;
+
+        //Find upper depth node (binary search)
+        int lo = 0;
+        int hi = numberOfDepths - 1;
+        while (hi - lo > 1) {
+            int mid = (lo + hi) >>> 1;
+            if (depth[mid] <= x) lo = mid; else hi = mid;
+        }
+
+        double upper = slopes != null ? interpolate(table[lo], slopes[lo], E) : interpolate(table[lo], E);
+        if (lo == hi) return upper;
+
+        double lower = slopes != null ? interpolate(table[hi], slopes[hi], E) : interpolate(table[hi], E);
+        double t     = (x - depth[lo]) / (depth[hi] - depth[lo]);
+        return (1.0d - t) * upper + t * lower;
+    }
+
+    private double interpolate(double[] values, double E) {
+
+        double index = E / dE;
+        if (index <= 0.0d) return values[0];
+
+        int i = (int) index;
+        if (i >= NUM_ENERGY_STEPS) return values[NUM_ENERGY_STEPS];
+
+        double t = index - i;
+        return (1.0d - t) * values[i] + t * values[i+1];
+    }
+
+    //Cubic Hermite interpolation using the tabulated derivatives
+    private double interpolate(double[] values, double[] slopes, double E) {
+
+        double index = E / dE;
+        if (index <= 0.0d) return values[0];
+
+        int i = (int) index;
+        if (i >= NUM_ENERGY_STEPS) return values[NUM_ENERGY_STEPS];
+
+        double t   = index - i ;
+        double t2  = t * t     ;
+        double t3  = t2 * t    ;
+        double h00 = 2.0d * t3 - 3.0d * t2 + 1.0d ;
+        double h10 = t3 - 2.0d * t2 + t           ;
+        double h01 = -2.0d * t3 + 3.0d * t2       ;
+        double h11 = t3 - t2                      ;
+
+        return h00 * values[i] + h10 * dE * slopes[i] + h01 * values[i+1] + h11 * dE * slopes[i+1];
+    }
+}
@@ -0,0 +1,133 @@
+package com.ruthelde.IBA.Simulator;
+
+/**
+ * Transfer table for the passage of the back scattered ions through the absorber foil in front of the detector. It
+ * maps the energy at the target's surface to the energy behind the foil and gives the propagation of the energy
+ * straggling through the foil: str2_detector = gain * str2_surface + bohr.
+ *
+ * Each layer is handled via its range integral R(E) = int dE / S(E), an ion entering a layer of areal density t with
+ * energy E leaves it with R^-1(R(E) - t). The straggling gain of the layer is (S(E_out) / S(E))^2 and the Bohr
+ * straggling collected inside and propagated to the exit is bohrFactor * S(E_out)^2 * int dE / S^3. Both integrals
+ * are tabulated once on the energy grid, so all lookups are linear interpolations.
+ */
+public class FoilTransferTable {
+
+    private static final int NUM_ENERGY_STEPS = 1024 ; //Energy grid resolution
+
+    private final double   dE         ;
+    private final double[] exitEnergy ;
+    private final double[] gain       ;
+    private final double[] bohr       ;
+
+    /**
+     * @param arealDensities  areal density of all foil layers in the order they are passed [1E15 at/cm^2]
+     * @param stopping        stopping of all layers on the energy grid of this table [keV/(1E15 at/cm^2)]
+     *                        (E_i = i * EMax / (getNumberOfEnergies() - 1)), has to be > 0
+     * @param bohrFactors     Bohr straggling of all layers [keV^2/(1E15 at/cm^2)]
+     * @param EMax            maximum energy covered by the table [keV]
+     */
+    public FoilTransferTable(double[] arealDensities, double[][] stopping, double[] bohrFactors, double EMax) {
+
+        int n = NUM_ENERGY_STEPS + 1;
+
+        this.dE         = EMax / NUM_ENERGY_STEPS ;
+        this.exitEnergy = new double[n]           ;
+        this.gain       = new double[n]           ;
+        this.bohr       = new double[n]           ;
+
+        for (int i=0; i<n; i++) {
+            exitEnergy[i] = i * dE ;
+            gain[i]       = 1.0d   ;
+            bohr[i]       = 0.0d   ;
+        }
+
+        double[] range  = new double[n] ; //int dE / S
+        double[] range3 = new double[n] ; //int dE / S^3
+
+        for (int l=0; l<arealDensities.length; l++) {
+
+            double[] S = stopping[l];
+
+            for (int i=1; i<n; i++) {
+                double s0 = 1.0d / S[i-1];
+                double s1 = 1.0d / S[i];
+                range[i]  = range[i-1]  + 0.5d * dE * (s0 + s1);
+                range3[i] = range3[i-1] + 0.5d * dE * (s0 * s0 * s0 + s1 * s1 * s1);
+            }
+
+            for (int i=0; i<n; i++) {
+
+                double E_in = exitEnergy[i];
+                double r    = interpolate(range, E_in) - arealDensities[l];
+
+                if (E_in <= 0.0d || r <= 0.0d) {
+
+                    //Ion is stopped inside the foil
+                    exitEnergy[i] = 0.0d;
+                    gain[i]       = 0.0d;
+                    bohr[i]       = 0.0d;
+                    continue;
+                }
+
+                double E_out = getInverse(range, r)                                   ;
+                double S_in  = interpolate(S, E_in)                                   ;
+                double S_out = interpolate(S, E_out)                                  ;
+                double g     = (S_out / S_in) * (S_out / S_in)                        ;
+                double I3    = interpolate(range3, E_in) - interpolate(range3, E_out) ;
+
+                exitEnergy[i] = E_out                                             ;
+                gain[i]       = gain[i] * g                                       ;
+                bohr[i]       = bohr[i] * g + bohrFactors[l] * S_out * S_out * I3 ;
+            }
+        }
+    }
+
+    public static int getNumberOfEnergies() {
+        return NUM_ENERGY_STEPS + 1;
+    }
+
+    /**
+     * Energy behind the foil [keV] of an ion leaving the target with energy E [keV]
+     */
+    public double getExitEnergy(double E) {
+        return interpolate(exitEnergy, E);
+    }
+
+    public double getStragglingGain(double E) {
+        return interpolate(gain, E);
+    }
+
+    public double getStragglingBohr(double E) {
+        return interpolate(bohr, E);
+    }
+
+    //Linear interpolation on the energy grid, clamped at both ends
+    private double interpolate(double[] values, double E) {
+
+        double x = E / dE;
+
+        if (x <= 0.0d) return values[0];
+        if (x >= NUM_ENERGY_STEPS) return values[NUM_ENERGY_STEPS];
+
+        int    i = (int) x ;
+        double f = x - i   ;
+
+        return values[i] + f * (values[i+1] - values[i]);
+    }
+
+    //Energy at which the (increasing) tabulated function reaches the given value
+    private double getInverse(double[] values, double value) {
+
+        int lo = 0;
+        int hi = NUM_ENERGY_STEPS;
+
+        if (value >= values[hi]) return hi * dE;
+
+        while (hi - lo > 1) {
+            int mid = (lo + hi) >>> 1;
+            if (values[mid] <= value) lo = mid; else hi = mid;
+        }
+
+        return (lo + (value - values[lo]) / (values[hi] - values[lo])) * dE;
+    }
+}
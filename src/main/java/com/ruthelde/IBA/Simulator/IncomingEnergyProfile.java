@@ -0,0 +1,238 @@
+package com.ruthelde.IBA.Simulator;
+
+import java.util.Arrays;
+
+/**
+ * Energy of the incoming ion as function of depth. The profile only depends on the projectile, its energy, the
+ * entrance angle and the layer stack, so it is calculated once per simulation and shared by all isotopes.
+ * Along with the energy the propagation of the energy straggling is tabulated as
+ * str2(x) = gain(x) * str2(0) + Z2 * bohr(x).
+ *
+ * Depth nodes are placed at all layer interfaces and in between with a step width chosen such that the energy
+ * loss between two nodes stays below a fixed fraction of E0. The energy is integrated by 4th order Runge-Kutta and
+ * interpolated by cubic Hermite splines using the stopping as derivative. The profile ends at the first node at
+ * which the energy has dropped below the cut off energy, behind it the energy of the last node is returned.
+ * The node arrays are kept and grown as needed.
+ */
+public class IncomingEnergyProfile {
+
+    private static final int NUM_LOSS_STEPS = 1024 ; //Max. energy loss between two depth nodes = E0 / NUM_LOSS_STEPS
+    private static final int MIN_NODES      = 256  ; //Nodes allocated at first
+
+    private int      numberOfNodes  ;
+    private double[] depth          ;
+    private double[] energy         ;
+    private double[] startSlope     ; //dE/dx at the node for the segment starting there
+    private double[] endSlope       ; //dE/dx at the node for the segment ending there
+    private double[] stragglingGain ;
+    private double[] stragglingBohr ;
+    private int[]    steps          ; //Number of steps per layer
+    private double[] stepWidth      ; //Step width per layer
+
+    public IncomingEnergyProfile() {
+
+        numberOfNodes  = 0                         ;
+        steps          = new int[0]                ;
+        stepWidth      = new double[0]             ;
+        depth          = new double[MIN_NODES]     ;
+        energy         = new double[MIN_NODES]     ;
+        startSlope     = new double[MIN_NODES]     ;
+        endSlope       = new double[MIN_NODES]     ;
+        stragglingGain = new double[MIN_NODES]     ;
+        stragglingBohr = new double[MIN_NODES]     ;
+    }
+
+    /**
+     * @param layerThicknesses  thickness of all layers [nm]
+     * @param stopping          stopping of all layers on an equidistant energy grid from 0 to E0 [keV/nm]
+     * @param bohrFactors       Bohr straggling of all layers per nm and per unit of Z2 [keV^2/nm]
+     * @param E0                primary energy [keV]
+     * @param EMin              cut off energy [keV]
+     * @param alpha             entrance angle [deg]
+     */
+    public void calculate(double[] layerThicknesses, double[][] stopping, double[] bohrFactors, double E0,
+                          double EMin, double alpha) {
+
+        int    numberOfLayers = layerThicknesses.length                 ;
+        double cosAlpha       = Math.cos(Math.toRadians(alpha))         ;
+        double maxLoss        = E0 / NUM_LOSS_STEPS                     ;
+        double dE             = E0 / (stopping[0].length - 1)           ;
+
+        //Determine depth nodes
+        if (steps.length < numberOfLayers) {
+            steps     = new int[numberOfLayers]    ;
+            stepWidth = new double[numberOfLayers] ;
+        }
+        for (int l=0; l<numberOfLayers; l++) {
+
+            double SMax = 0.0d;
+            for (double S : stopping[l]) SMax = Math.max(SMax, S);
+            SMax /= cosAlpha;
+
+            int n = 1;
+            if (SMax > 0.0d) n = (int) Math.ceil(layerThicknesses[l] * SMax / maxLoss);
+            if (n < 1) n = 1;
+
+            steps[l]     = n;
+            stepWidth[l] = layerThicknesses[l] / n;
+        }
+
+        double[] _depth          = depth          ;
+        double[] _energy         = energy         ;
+        double[] _startSlope     = startSlope     ;
+        double[] _endSlope       = endSlope       ;
+        double[] _stragglingGain = stragglingGain ;
+        double[] _stragglingBohr = stragglingBohr ;
+
+        _depth[0]          = 0.0d ;
+        _energy[0]         = E0   ;
+        _endSlope[0]       = 0.0d ;
+        _stragglingGain[0] = 1.0d ;
+        _stragglingBohr[0] = 0.0d ;
+
+        int     node    = 0     ;
+        boolean stopped = false ;
+        double  sum     = 0.0d  ;
+
+        for (int l=0; l<numberOfLayers && !stopped; l++) {
+
+            double[] S    = stopping[l]                   ;
+            double   h    = stepWidth[l]                  ;
+            double   bohr = bohrFactors[l] * h / cosAlpha ;
+
+            for (int s=0; s<steps[l] && !stopped; s++) {
+
+                if (node + 1 == _depth.length) {
+                    allocate(2 * _depth.length);
+                    _depth          = depth          ;
+                    _energy         = energy         ;
+                    _startSlope     = startSlope     ;
+                    _endSlope       = endSlope       ;
+                    _stragglingGain = stragglingGain ;
+                    _stragglingBohr = stragglingBohr ;
+                }
+
+                double E  = _energy[node];
+                double k1 = interpolate(S, dE, E                  ) / cosAlpha;
+                double k2 = interpolate(S, dE, E - 0.5d * h * k1  ) / cosAlpha;
+                double k3 = interpolate(S, dE, E - 0.5d * h * k2  ) / cosAlpha;
+                double k4 = interpolate(S, dE, E - h * k3         ) / cosAlpha;
+                double E_next = E - h * (k1 + 2.0d * k2 + 2.0d * k3 + k4) / 6.0d;
+
+                _startSlope[node] = -k1;
+                node++;
+                _depth[node] = _depth[node-1] + h;
+
+                if (E_next <= 0.0d) {
+                    _energy[node]         = 0.0d ;
+                    _startSlope[node]     = 0.0d ;
+                    _endSlope[node]       = 0.0d ;
+                    _stragglingGain[node] = 0.0d ;
+                    _stragglingBohr[node] = 0.0d ;
+                    stopped = true;
+                    break;
+                }
+
+                double S_next = interpolate(S, dE, E_next) / cosAlpha;
+                double ratio  = k1 > 0.0d ? S_next / k1 : 1.0d;
+
+                _energy[node]         = E_next                                       ;
+                _endSlope[node]       = -S_next                                      ;
+                _stragglingGain[node] = ratio * ratio * _stragglingGain[node-1]      ;
+                _stragglingBohr[node] = ratio * ratio * _stragglingBohr[node-1] + bohr ;
+
+                if (E_next < EMin) {
+                    _startSlope[node] = 0.0d;
+                    stopped = true;
+                }
+            }
+
+            //Avoid rounding errors at the interfaces
+            sum += layerThicknesses[l];
+            if (!stopped) _depth[node] = sum;
+        }
+
+        if (!stopped) _startSlope[node] = 0.0d;
+
+        this.numberOfNodes = node + 1;
+    }
+
+    //Grows the node arrays, existing nodes are kept
+    private void allocate(int nodes) {
+
+        depth          = Arrays.copyOf(depth, nodes)          ;
+        energy         = Arrays.copyOf(energy, nodes)         ;
+        startSlope     = Arrays.copyOf(startSlope, nodes)     ;
+        endSlope       = Arrays.copyOf(endSlope, nodes)       ;
+        stragglingGain = Arrays.copyOf(stragglingGain, nodes) ;
+        stragglingBohr = Arrays.copyOf(stragglingBohr, nodes) ;
+    }
+
+    /**
+     * Energy [keV] of the incoming ion at depth x [nm], behind the last node (e.g. by rounding at the target's back
+     * side) the energy of the last node
+     */
+    public double getEnergy(double x) {
+
+        if (x <= 0.0d) return energy[0];
+        if (x >= depth[numberOfNodes-1]) return energy[numberOfNodes-1];
+
+        int    i  = findNode(x)          ;
+        double h  = depth[i+1] - depth[i] ;
+        double t  = (x - depth[i]) / h    ;
+        double t2 = t * t                 ;
+        double t3 = t2 * t                ;
+
+        return (2.0d * t3 - 3.0d * t2 + 1.0d) * energy[i] + (t3 - 2.0d * t2 + t) * h * startSlope[i]
+                + (-2.0d * t3 + 3.0d * t2) * energy[i+1] + (t3 - t2) * h * endSlope[i+1];
+    }
+
+    /**
+     * Factor by which the initial straggling variance of the beam is scaled until the ion reaches depth x
+     */
+    public double getStragglingGain(double x) {
+        return interpolate(stragglingGain, x);
+    }
+
+    /**
+     * Bohr straggling variance [keV^2] accumulated on the way from the surface to depth x (per unit of Z2)
+     */
+    public double getStragglingBohr(double x) {
+        return interpolate(stragglingBohr, x);
+    }
+
+    private double interpolate(double[] values, double x) {
+
+        if (x <= 0.0d) return values[0];
+        if (x >= depth[numberOfNodes-1]) return values[numberOfNodes-1];
+
+        int    i = findNode(x)                                   ;
+        double t = (x - depth[i]) / (depth[i+1] - depth[i])      ;
+
+        return (1.0d - t) * values[i] + t * values[i+1];
+    }
+
+    //Index of the last node above x (binary search)
+    private int findNode(double x) {
+
+        int lo = 0;
+        int hi = numberOfNodes - 1;
+        while (hi - lo > 1) {
+            int mid = (lo + hi) >>> 1;
+            if (depth[mid] <= x) lo = mid; else hi = mid;
+        }
+        return lo;
+    }
+
+    private static double interpolate(double[] S, double dE, double E) {
+
+        double index = E / dE;
+        if (index <= 0.0d) return S[0];
+
+        int i = (int) index;
+        if (i >= S.length - 1) return S[S.length - 1];
+
+        double t = index - i;
+        return (1.0d - t) * S[i] + t * S[i+1];
+    }
+}
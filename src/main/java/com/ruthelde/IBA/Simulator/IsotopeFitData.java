@@ -1,5 +1,7 @@
 package com.ruthelde.IBA.Simulator;
 
+import java.util.Arrays;
+
 public class IsotopeFitData {
 
     public int Z;
@@ -7,6 +9,7 @@ public class IsotopeFitData {
     public double[] concentrations;
     public double[][] spectra;
     public double[] straggling; // = sigma^2 [keV^2]
+    public int[] firstChannel, lastChannel; // Range of each spectrum outside of which it is zero (empty if last < first)
 
     public IsotopeFitData() {
 
@@ -19,6 +22,36 @@ public class IsotopeFitData {
         this.concentrations = concentrations;
         this.straggling = new double[spectrumLength];
         this.spectra = new double[concentrations.length][spectrumLength];
+        this.firstChannel = new int[concentrations.length];
+        this.lastChannel = new int[concentrations.length];
+        clearChannelRanges();
+    }
+
+    public void clearChannelRanges() {
+
+        for (int i=0; i<spectra.length; i++) {
+            firstChannel[i] = spectra[i].length;
+            lastChannel[i] = -1;
+        }
+    }
+
+    /**
+     * Sets all spectra and straggling values to zero, the concentrations are kept.
+     */
+    public void clearSpectra() {
+
+        //Spectra are zero outside their channel range
+        for (int i=0; i<spectra.length; i++) {
+            if (lastChannel[i] >= firstChannel[i]) Arrays.fill(spectra[i], firstChannel[i], lastChannel[i] + 1, 0.0d);
+        }
+        Arrays.fill(straggling, 0.0d);
+        clearChannelRanges();
+    }
+
+    public void extendChannelRange(int layerIndex, int channel) {
+
+        if (channel < firstChannel[layerIndex]) firstChannel[layerIndex] = channel;
+        if (channel > lastChannel[layerIndex]) lastChannel[layerIndex] = channel;
     }
 
     public IsotopeFitData getDeepCopy(){
@@ -36,6 +69,11 @@ public class IsotopeFitData {
         isotopeFitData.straggling = new double[straggling.length];
         System.arraycopy(straggling, 0, isotopeFitData.straggling, 0, straggling.length);
 
+        if (firstChannel != null) {
+            isotopeFitData.firstChannel = firstChannel.clone();
+            isotopeFitData.lastChannel = lastChannel.clone();
+        }
+
         return isotopeFitData;
     }
 }
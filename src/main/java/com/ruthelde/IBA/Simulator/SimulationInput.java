@@ -0,0 +1,132 @@
+package com.ruthelde.IBA.Simulator;
+
+import com.ruthelde.IBA.CalculationSetup.CalculationSetup;
+import com.ruthelde.IBA.Detector.DetectorCalibration;
+import com.ruthelde.IBA.Detector.DetectorGeometry;
+import com.ruthelde.IBA.Detector.DetectorSetup;
+import com.ruthelde.IBA.ExperimentalSetup.ExperimentalSetup;
+import com.ruthelde.Target.Target;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Immutable snapshot of everything a simulation depends on. All setup objects are deep copied on construction and
+ * never handed out again, so one instance can be shared by any number of threads. Getters return copies.
+ */
+public class SimulationInput {
+
+    final ExperimentalSetup experimentalSetup    ;
+    final DetectorSetup     detectorSetup        ;
+    final DetectorGeometry  detectorGeometry     ;
+    final Target            target               ;
+    final Target            foil                 ;
+    final CalculationSetup  calculationSetup     ;
+    final double[]          experimentalSpectrum ;
+    final int               numberOfChannels     ;
+    final int               startChannel         ;
+    final int               stopChannel          ;
+    final double            LFF                  ;
+    final double            stoppingTableEMax    ; //Upper energy limit of the stopping tables [keV], >= E0
+
+    //Built by the kernel on first use and shared with all variants, which have the same foil and beam
+    final AtomicReference<FoilTransferTable> foilTransferTable ;
+
+    public SimulationInput(ExperimentalSetup experimentalSetup, DetectorSetup detectorSetup, Target target,
+                           Target foil, CalculationSetup calculationSetup, double[] experimentalSpectrum,
+                           int startChannel, int stopChannel, double LFF) {
+
+        this.experimentalSetup    = experimentalSetup.getDeepCopy() ;
+        this.detectorSetup        = detectorSetup.getDeepCopy()     ;
+        this.target               = target.getDeepCopy()            ;
+        this.foil                 = foil.getDeepCopy()              ;
+        this.calculationSetup     = calculationSetup.getDeepCopy()  ;
+        this.experimentalSpectrum = experimentalSpectrum.clone()    ;
+        this.numberOfChannels     = experimentalSpectrum.length     ;
+        this.startChannel         = startChannel                    ;
+        this.stopChannel          = stopChannel                     ;
+        this.LFF                  = LFF                             ;
+        this.stoppingTableEMax    = this.experimentalSetup.getE0()  ;
+        this.foilTransferTable    = new AtomicReference<>()         ;
+        this.detectorGeometry     = getDetectorGeometry()           ;
+    }
+
+    //Used for variants. Takes ownership of the given (already copied or never modified) objects.
+    private SimulationInput(SimulationInput base, ExperimentalSetup experimentalSetup, DetectorSetup detectorSetup,
+                            Target target, CalculationSetup calculationSetup, double stoppingTableEMax) {
+
+        this.experimentalSetup    = experimentalSetup         ;
+        this.detectorSetup        = detectorSetup             ;
+        this.target               = target                    ;
+        this.foil                 = base.foil                 ;
+        this.calculationSetup     = calculationSetup          ;
+        this.experimentalSpectrum = base.experimentalSpectrum ;
+        this.numberOfChannels     = base.numberOfChannels     ;
+        this.startChannel         = base.startChannel         ;
+        this.stopChannel          = base.stopChannel          ;
+        this.LFF                  = base.LFF                  ;
+        this.stoppingTableEMax    = stoppingTableEMax         ;
+        this.foilTransferTable    = base.foilTransferTable    ;
+        this.detectorGeometry     = getDetectorGeometry()     ;
+    }
+
+    /**
+     * Returns a copy of this input with the fit parameters of one individual. The experimental spectrum and the foil
+     * are shared with this instance, setups and target are deep copied for each call. Individuals are already
+     * simulated concurrently, so isotopes are simulated sequentially within a variant.
+     */
+    public SimulationInput getVariant(Target target, DetectorCalibration detectorCalibration, double charge,
+                                      double resolution, boolean simulateIsotopes) {
+
+        ExperimentalSetup _experimentalSetup = experimentalSetup.getDeepCopy() ;
+        DetectorSetup     _detectorSetup     = detectorSetup.getDeepCopy()     ;
+        CalculationSetup  _calculationSetup  = calculationSetup.getDeepCopy()  ;
+
+        _experimentalSetup.setCharge(charge);
+        _detectorSetup.setResolution(resolution);
+        _detectorSetup.setCalibrationFactor(detectorCalibration.getFactor());
+        _detectorSetup.setCalibrationOffset(detectorCalibration.getOffset());
+        _calculationSetup.setSimulateIsotopes(simulateIsotopes);
+        _calculationSetup.setParallelIsotopes(false);
+
+        return new SimulationInput(this, _experimentalSetup, _detectorSetup, target.getDeepCopy(), _calculationSetup,
+                stoppingTableEMax);
+    }
+
+    /**
+     * Returns a copy of this input whose stopping tables cover energies up to EMax (at least E0). Inputs of different
+     * beam energies which are simulated together, e.g. in a joint fit, then share the cached stopping tables.
+     */
+    public SimulationInput getStoppingTableVariant(double EMax) {
+
+        return new SimulationInput(this, experimentalSetup, detectorSetup, target, calculationSetup,
+                Math.max(EMax, experimentalSetup.getE0()));
+    }
+
+    public ExperimentalSetup getExperimentalSetup() {return experimentalSetup.getDeepCopy();}
+
+    public DetectorSetup getDetectorSetup() {return detectorSetup.getDeepCopy();}
+
+    /**
+     * Geometry of the detector described by the experimental and detector setup
+     */
+    public DetectorGeometry getDetectorGeometry() {
+
+        return new DetectorGeometry(experimentalSetup.getTheta(), experimentalSetup.getBeta(),
+                detectorSetup.getDeepCopy());
+    }
+
+    public DetectorCalibration getDetectorCalibration() {return detectorSetup.getCalibration().getDeepCopy();}
+
+    public Target getTarget() {return target.getDeepCopy();}
+
+    public CalculationSetup getCalculationSetup() {return calculationSetup.getDeepCopy();}
+
+    public double getCharge() {return experimentalSetup.getCharge();}
+
+    public double getResolution() {return detectorSetup.getResolution();}
+
+    public int getNumberOfChannels() {return numberOfChannels;}
+
+    public int getStartChannel() {return startChannel;}
+
+    public int getStopChannel() {return stopChannel;}
+}
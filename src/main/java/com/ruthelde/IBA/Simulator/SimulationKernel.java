@@ -0,0 +1,1069 @@
+package com.ruthelde.IBA.Simulator;
+
+import com.ruthelde.IBA.CalculationSetup.*;
+import com.ruthelde.IBA.Detector.*;
+import com.ruthelde.IBA.ExperimentalSetup.ExperimentalSetup;
+import com.ruthelde.IBA.Kinematics.CrossSectionProvider;
+import com.ruthelde.IBA.Kinematics.KinematicsCalculator;
+import com.ruthelde.Stopping.*;
+import com.ruthelde.Target.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stateless spectrum simulation. Everything a simulation depends on is passed in as immutable SimulationInput and
+ * all scratch data lives in a per-thread SimulationWorkspace, so a single kernel can be used concurrently by any
+ * number of threads.
+ */
+public class SimulationKernel {
+
+    private final static double E_CUTOFF           = 50.0 ; //keV   //TODO: Implement into calculationSetup
+    private final static double MIN_FOIL_THICKNESS = 0.1  ; //nm, thinner foils are ignored
+    private final static int    MAX_EXPANSIONS     = 64   ; //Brick end search: max. number of bracket expansions
+    private final static int    MAX_ITERATIONS     = 64   ; //Brick end search: max. number of regula falsi steps
+    private final static double MIN_BRACKET_WIDTH  = 1E-9 ; //nm, brick end search stops at this bracket width
+    private final static double BRACKET_OVERSHOOT  = 0.05 ; //Brick end search: relative overshoot of the secant step
+
+    private final ThreadLocal<SimulationWorkspace> workspaces = ThreadLocal.withInitial(SimulationWorkspace::new);
+
+    //Stopping tables are shared by all kernels, individuals and generations
+    private final StoppingTableCache stoppingTableCache = StoppingTableCache.getSharedInstance();
+
+    private final AtomicLong earlyRejections = new AtomicLong();
+
+    /**
+     * Simulates the given input. The returned data holds copies of all spectra and is owned by the caller.
+     */
+    public SimulationData simulate(SimulationInput input) {
+
+        long millis = System.currentTimeMillis();
+
+        SimulationWorkspace ws = workspaces.get();
+        double fitness = simulate(input, ws, false, 0.0d, 1.0d, null);
+
+        millis = System.currentTimeMillis() - millis;
+
+        return getSimulationData(input, ws, input.detectorGeometry, fitness, millis);
+    }
+
+    /**
+     * Simulates the given input for several detectors, which record the same sample at the same time. Stopping
+     * tables, isotope list, incoming path and foil are only calculated once, the outgoing path and all spectra for
+     * each detector. The returned list holds one result per detector, their fitness refers to the input's
+     * experimental spectrum and fit window.
+     */
+    public List<SimulationData> simulate(SimulationInput input, List<DetectorGeometry> detectors) {
+
+        long millis = System.currentTimeMillis();
+
+        SimulationWorkspace  ws     = workspaces.get()                  ;
+        List<SimulationData> result = new ArrayList<>(detectors.size()) ;
+
+        prepareSimulation(input, ws);
+
+        for (DetectorGeometry detector : detectors) {
+
+            if (!result.isEmpty()) ws.clearIsotopeSpectra();
+
+            double fitness = simulateDetector(input, ws, detector, 0, input.numberOfChannels - 1, false, 0.0d, 1.0d,
+                    null, false);
+
+            long now = System.currentTimeMillis();
+            result.add(getSimulationData(input, ws, detector, fitness, now - millis));
+            millis = now;
+        }
+
+        return result;
+    }
+
+    //Copies the results of the last simulation out of the workspace
+    private SimulationData getSimulationData(SimulationInput input, SimulationWorkspace ws, DetectorGeometry detector,
+                                             double fitness, long millis) {
+
+        int numberOfChannels = input.numberOfChannels;
+
+        //Copy the results out of the workspace
+        LinkedList<IsotopeFitData> isotopeList = new LinkedList<IsotopeFitData>();
+        for (IsotopeFitData isotopeFitData : ws.isotopeList) isotopeList.add(isotopeFitData.getDeepCopy());
+
+        double[] simulatedSpectrum = Arrays.copyOf(ws.simulatedSpectrum, numberOfChannels);
+
+        //Scale experimental spectrum according to detector calibration
+        double[] energy = new double[numberOfChannels];
+        DetectorCalibration detectorCalibration = detector.getDetectorSetup().getCalibration();
+        for (int j=0; j<numberOfChannels; j++) {
+            energy[j] = detectorCalibration.getFactor()*j + detectorCalibration.getOffset();
+        }
+
+        SimulationData simulationData = new SimulationData();
+
+        simulationData.setNumberOfChannels(numberOfChannels)               ;
+        simulationData.setEnergy(energy)                                   ;
+        simulationData.setIsotopeFitData(isotopeList)                      ;
+        simulationData.setSimulatedSpectrum(simulatedSpectrum)             ;
+        simulationData.setExperimentalSpectrum(input.experimentalSpectrum) ;
+        simulationData.setSimulationTime(millis)                           ;
+        simulationData.setFitness(fitness)                                 ;
+
+        return simulationData;
+    }
+
+    /**
+     * Simulates the given input and only returns its fitness. All intermediate data lives in the buffers of the
+     * calling thread's workspace, so (apart from buffer growth) the kernel allocates no memory. Creating the input,
+     * e.g. by SimulationInput.getVariant(), and a BrickSpectra to store the bricks in are up to the caller.
+     */
+    public double simulateFitness(SimulationInput input) {
+
+        return simulateFitness(input, 0.0d);
+    }
+
+    /**
+     * Same as above, but the simulation is aborted as soon as the fitness can not reach minFitness any more. In this
+     * case an upper limit of the fitness (always lower than minFitness) is returned. As all isotope spectra are
+     * positive, channels in which the partial sum already exceeds the experimental spectrum give a lower limit of the
+     * final residual, which is checked after each isotope. Isotopes simulated in parallel are not checked.
+     */
+    public double simulateFitness(SimulationInput input, double minFitness) {
+
+        return simulateFitness(input, minFitness, null);
+    }
+
+    /**
+     * Same as above. If brickSpectra is applicable to the input's resolution, the bricks stored in it are convolved
+     * and scaled to the input's charge instead of being simulated, otherwise they are simulated and stored in it. The
+     * caller has to make sure that target, setup and calibration match the stored bricks.
+     */
+    public double simulateFitness(SimulationInput input, double minFitness, BrickSpectra brickSpectra) {
+
+        return simulate(input, workspaces.get(), true, minFitness, 1.0d, brickSpectra);
+    }
+
+    /**
+     * Fitness at the charge which minimizes the residual within the fit window. As the simulated yield is proportional
+     * to the charge, the input is simulated once at its own charge and the optimal charge follows in closed form. It
+     * is limited to [minCharge, maxCharge]. Early rejection works as above, partial spectra are checked at minCharge,
+     * as a higher charge can only increase their excess.
+     */
+    public ChargeFit simulateFitnessAtOptimalCharge(SimulationInput input, double minCharge, double maxCharge,
+                                                    double minFitness) {
+
+        return simulateFitnessAtOptimalCharge(input, minCharge, maxCharge, minFitness, null);
+    }
+
+    /**
+     * Same as above, the bricks are reused or stored as in simulateFitness(input, minFitness, brickSpectra).
+     */
+    public ChargeFit simulateFitnessAtOptimalCharge(SimulationInput input, double minCharge, double maxCharge,
+                                                    double minFitness, BrickSpectra brickSpectra) {
+
+        SimulationWorkspace ws = workspaces.get();
+        double              Q0 = input.experimentalSetup.getCharge();
+
+        double fitness = simulate(input, ws, true, minFitness, minCharge / Q0, brickSpectra);
+        if (ws.aborted) return new ChargeFit(Math.max(minCharge, Math.min(Q0, maxCharge)), fitness);
+
+        //Least squares scaling factor of the simulated spectrum
+        double[] simulatedSpectrum = ws.simulatedSpectrum;
+        double   sum_es            = 0.0d;
+        double   sum_ss            = 0.0d;
+
+        for (int i=input.startChannel; i<input.stopChannel; i++){
+            sum_es += input.experimentalSpectrum[i] * simulatedSpectrum[i];
+            sum_ss += simulatedSpectrum[i] * simulatedSpectrum[i];
+        }
+
+        double Q = sum_ss > 0.0d ? Q0 * sum_es / sum_ss : Q0;
+        Q = Math.max(minCharge, Math.min(Q, maxCharge));
+
+        return new ChargeFit(Q, calFitness(input, simulatedSpectrum, Q / Q0));
+    }
+
+    /**
+     * Sum spectrum of the calling thread's last simulation, e.g. by simulateFitness(). It lives in the thread's
+     * workspace and is overwritten by its next simulation.
+     */
+    double[] getLastSimulatedSpectrum() {
+        return workspaces.get().simulatedSpectrum;
+    }
+
+    /**
+     * Number of simulations which were aborted by simulateFitness(input, minFitness)
+     */
+    public long getEarlyRejections() {
+        return earlyRejections.get();
+    }
+
+    /**
+     * @param fitnessOnly if true, the bricks of all layers are collected in the first spectrum of each isotope
+     *                    instead of one spectrum per layer, which saves the convolution of the other layers. If
+     *                    enabled in the calculation setup, only the fit window (startChannel..stopChannel-1) is
+     *                    simulated and all channels outside of it are zero.
+     * @param minFitness  if > 0 the simulation is aborted as soon as this fitness can not be reached any more
+     * @param minScale    lowest factor the simulated spectrum may be scaled with before the fitness is calculated,
+     *                    used by the early rejection
+     * @param brickSpectra if not null, the bricks are taken from it if applicable or stored in it otherwise
+     */
+    private double simulate(SimulationInput input, SimulationWorkspace ws, boolean fitnessOnly, double minFitness,
+                            double minScale, BrickSpectra brickSpectra) {
+
+        int numberOfChannels = input.numberOfChannels;
+
+        ws.aborted = false;
+
+        //Channel range which has to be simulated correctly
+        int firstChannel = 0                    ;
+        int lastChannel  = numberOfChannels - 1 ;
+
+        if (fitnessOnly && input.calculationSetup.isSimulateFitWindowOnly()) {
+            firstChannel = Math.max(input.startChannel, 0)                          ;
+            lastChannel  = Math.min(input.stopChannel - 1, numberOfChannels - 1)    ;
+            if (lastChannel < firstChannel) return calFitness(input, ws.getSimulatedSpectrum(numberOfChannels));
+        }
+
+        DetectorSetup detectorSetup = input.detectorGeometry.getDetectorSetup();
+        boolean       reuseBricks   = brickSpectra != null && brickSpectra.isApplicable(detectorSetup.getResolution());
+
+        if (reuseBricks) {
+            ws.prepare(input);
+            prepareIsotopeList(input, ws);
+        } else {
+            prepareSimulation(input, ws);
+            if (brickSpectra != null) {
+                //Simulate enough bricks below the window for all resolutions up to the upper limit
+                double maxResolution = Math.max(detectorSetup.getResolution(), detectorSetup.getMaxRes());
+                brickSpectra.prepare(ws.isotopeList.size(), input.target.getLayerList().size(),
+                        input.experimentalSetup.getCharge(), maxResolution);
+            }
+        }
+
+        double fitness = simulateDetector(input, ws, input.detectorGeometry, firstChannel, lastChannel, fitnessOnly,
+                minFitness, minScale, brickSpectra, reuseBricks);
+
+        if (brickSpectra != null && !reuseBricks && !ws.aborted) brickSpectra.setComplete();
+
+        return fitness;
+    }
+
+    /**
+     * Detector independent part of a simulation: stopping tables, isotope list, incoming path and foil
+     */
+    private void prepareSimulation(SimulationInput input, SimulationWorkspace ws) {
+
+        ws.prepare(input);
+
+        int numberOfLayers = input.target.getLayerList().size();
+
+        ws.prepareLayers(numberOfLayers, ExitEnergyTable.getNumberOfEnergies());
+
+        preCalcStoppingValues(input, ws);
+        prepareIsotopeList(input, ws);
+
+        //Tabulate the incoming path once for all isotopes and detectors
+        buildPathTables(input, ws);
+        prepareFoilTransferTable(input, ws);
+    }
+
+    //Build a list of all spectra (isotopes) we have to simulate
+    private void prepareIsotopeList(SimulationInput input, SimulationWorkspace ws) {
+
+        int numberOfLayers   = input.target.getLayerList().size() ;
+        int numberOfChannels = input.numberOfChannels             ;
+
+        if (input.calculationSetup.isSimulateIsotopes()) {
+            generateIsotopeList(ws, input.target, numberOfLayers, numberOfChannels);
+        } else {
+            generateSimplifiedIsotopeList(ws, input.target, numberOfLayers, numberOfChannels);
+        }
+    }
+
+    /**
+     * Simulates the spectra of all isotopes for one detector, the workspace has to be prepared by prepareSimulation()
+     * and all isotope spectra have to be empty. If reuseBricks is set, only the isotope list has to be prepared and
+     * the bricks are taken from brickSpectra, otherwise they are stored in it (if not null).
+     */
+    private double simulateDetector(SimulationInput input, SimulationWorkspace ws, DetectorGeometry detector,
+                                    int firstChannel, int lastChannel, boolean fitnessOnly, double minFitness,
+                                    double minScale, BrickSpectra brickSpectra, boolean reuseBricks) {
+
+        List<IsotopeFitData> isotopeList      = ws.isotopeList         ;
+        int                  numberOfChannels = input.numberOfChannels ;
+
+        //Tabulate the outgoing path once for all isotopes
+        if (!reuseBricks) buildExitEnergyTable(input, ws, detector.getBeta());
+
+        //Generate sum spectrum (simulated spectrum). Always summed in list order to get reproducible results.
+        double[] simulatedSpectrum = ws.getSimulatedSpectrum(numberOfChannels);
+
+        //Simulate all spectra
+        if (input.calculationSetup.isParallelIsotopes() && isotopeList.size() > 1 && !reuseBricks) {
+
+            simulateIsotopeSpectraInParallel(input, ws, detector, isotopeList, firstChannel, lastChannel,
+                    fitnessOnly, brickSpectra);
+            for (int i=0; i<isotopeList.size(); i++) addToSpectrum(simulatedSpectrum, isotopeList.get(i));
+
+        } else {
+
+            //Largest residual for which the fitness still reaches minFitness
+            double maxSigma2 = minFitness > 0.0d ? input.LFF * 100.0f / minFitness : Double.POSITIVE_INFINITY;
+
+            for (int i=0; i<isotopeList.size(); i++) {
+
+                try {
+                    if (reuseBricks) {
+                        restoreIsotopeSpectrum(input, ws, detector, isotopeList.get(i), brickSpectra, i,
+                                firstChannel, lastChannel);
+                    } else {
+                        simulateIsotopeSpectrum(input, ws, detector, ws, isotopeList.get(i), firstChannel,
+                                lastChannel, fitnessOnly, brickSpectra, i);
+                    }
+                } catch (Exception e){System.out.println("Simulation error: "); e.printStackTrace();}
+
+                addToSpectrum(simulatedSpectrum, isotopeList.get(i));
+
+                if (maxSigma2 < Double.POSITIVE_INFINITY && i < isotopeList.size() - 1) {
+                    double minSigma2 = getMinResidual(input, simulatedSpectrum, minScale);
+                    if (minSigma2 > maxSigma2) {
+                        earlyRejections.incrementAndGet();
+                        ws.aborted = true;
+                        return input.LFF / minSigma2 * 100.0f;
+                    }
+                }
+            }
+        }
+
+        return calFitness(input, simulatedSpectrum);
+    }
+
+    private void addToSpectrum(double[] simulatedSpectrum, IsotopeFitData isotopeFitData) {
+
+        for (int j=0; j<isotopeFitData.spectra.length; j++) {
+            double[] spectrum = isotopeFitData.spectra[j];
+            for (int k=isotopeFitData.firstChannel[j]; k<=isotopeFitData.lastChannel[j]; k++) {
+                simulatedSpectrum[k] += spectrum[k];
+            }
+        }
+    }
+
+    /**
+     * Lower limit of the final residual for a partially summed simulated spectrum. Further (positive) contributions
+     * can only increase the residual of channels which already exceed the experimental spectrum, as can scaling the
+     * spectrum with a factor > scale.
+     */
+    private double getMinResidual(SimulationInput input, double[] simulatedSpectrum, double scale) {
+
+        double sigma2 = 0.0d;
+
+        for (int i=input.startChannel; i<input.stopChannel; i++){
+            double excess = scale * simulatedSpectrum[i] - input.experimentalSpectrum[i];
+            if (excess > 0.0d) sigma2 += excess * excess;
+        }
+
+        return sigma2;
+    }
+
+    /**
+     * Simulates all isotopes as tasks on the common fork/join pool. The path tables are read only and shared by all
+     * tasks, projectile and convolver are taken from the workspace of the executing thread.
+     */
+    private void simulateIsotopeSpectraInParallel(SimulationInput input, SimulationWorkspace ws,
+                                                  DetectorGeometry detector, List<IsotopeFitData> isotopeList,
+                                                  int firstChannel, int lastChannel, boolean singleSpectrum,
+                                                  BrickSpectra brickSpectra) {
+
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(isotopeList.size());
+
+        for (int i=0; i<isotopeList.size(); i++) {
+
+            IsotopeFitData isotopeFitData = isotopeList.get(i) ;
+            int            isotopeIndex   = i                  ;
+
+            tasks.add(ForkJoinTask.adapt(() -> {
+
+                //A thread joining its own tasks may steal tasks of other simulations, so always prepare
+                SimulationWorkspace workspace = workspaces.get();
+                workspace.prepare(input);
+
+                try {
+                    simulateIsotopeSpectrum(input, workspace, detector, ws, isotopeFitData, firstChannel,
+                            lastChannel, singleSpectrum, brickSpectra, isotopeIndex);
+                } catch (Exception e){System.out.println("Simulation error: "); e.printStackTrace();}
+            }));
+        }
+
+        ForkJoinTask.invokeAll(tasks);
+    }
+
+    /**
+     * Convolves the stored bricks of one isotope, scaled to the input's charge
+     */
+    private void restoreIsotopeSpectrum(SimulationInput input, SimulationWorkspace ws, DetectorGeometry detector,
+                                        IsotopeFitData isotopeFitData, BrickSpectra brickSpectra, int isotopeIndex,
+                                        int firstChannel, int lastChannel) {
+
+        DetectorSetup detectorSetup = detector.getDetectorSetup()                ;
+        double        a             = detectorSetup.getCalibration().getFactor() ;
+        double        b             = detectorSetup.getCalibration().getOffset() ;
+        double        Q             = input.experimentalSetup.getCharge()        ;
+
+        double channel = brickSpectra.restore(isotopeIndex, isotopeFitData, Q);
+
+        if (channel < input.numberOfChannels-1) {
+            convolveSpectrum(input, ws, detectorSetup, isotopeFitData, a, b, channel, firstChannel, lastChannel);
+        }
+    }
+
+    /**
+     * @param paths        workspace which holds the path tables and layer data of the simulation, it belongs to
+     *                     another thread if the isotopes are simulated in parallel
+     * @param brickSpectra if not null, the bricks of the isotope are stored in it before the convolution. If it has a
+     *                     source with the same upper layers, the bricks of these layers are taken from there.
+     */
+    private void simulateIsotopeSpectrum(SimulationInput input, SimulationWorkspace ws, DetectorGeometry detector,
+                                         SimulationWorkspace paths, IsotopeFitData isotopeFitData, int firstChannel,
+                                         int lastChannel, boolean singleSpectrum, BrickSpectra brickSpectra,
+                                         int isotopeIndex) {
+
+        ExperimentalSetup experimentalSetup = input.experimentalSetup       ;
+        DetectorSetup     detectorSetup     = detector.getDetectorSetup()   ;
+        int               numberOfChannels  = input.numberOfChannels        ;
+        int               numberOfLayers    = paths.layerThicknesses.length ;
+
+        //Layer data is read from the arrays, iterating the target's lists in the brick loop allocates
+        IncomingEnergyProfile incomingEnergyProfile = paths.incomingEnergyProfile ;
+        ExitEnergyTable       exitEnergyTable       = paths.exitEnergyTable       ;
+        double[]              layerThicknesses      = paths.layerThicknesses      ;
+        double[]              conversionFactors     = paths.conversionFactors     ;
+
+        int     layerIndex       = 0     ;
+        boolean interfaceReached = false ;
+        boolean stopSimulation   = false ;
+        double  lowestChannel    = -1.0  ; //Lowest channel still contributing to the window (-1 = not known yet)
+
+        Projectile projectile = ws.projectile;
+
+        double E0    = experimentalSetup.getE0()     ;
+        double theta = detector.getTheta()           ;
+        double Q     = experimentalSetup.getCharge() ;
+
+        double a     = detectorSetup.getCalibration().getFactor() ;
+        double b     = detectorSetup.getCalibration().getOffset()           ;
+        double omega = detectorSetup.getSolidAngle()                        ;
+
+        int    Z2 = isotopeFitData.Z                          ;
+        double M2 = isotopeFitData.M                          ;
+        double c  = isotopeFitData.concentrations[layerIndex] ;
+
+        double dx = 5.0; //Thickness per channel of the last brick [nm], first guess of the brick end search
+
+        double tolerance = input.calculationSetup.getBrickTolerance() * a; //Accuracy of the brick end search [keV]
+
+        FoilTransferTable foilTable = input.foilTransferTable.get(); //null = no foil
+
+        //Angle and isotope dependent part of the cross section
+        ScreeningMode screeningMode = input.calculationSetup.getScreeningMode();
+        CrossSectionProvider crossSection = ws.getCrossSection(projectile, Z2, M2, theta, screeningMode);
+
+        //Set initial parameter when the ion reaches the target's surface
+        double E = E0;
+        double str2_0 = Math.pow(experimentalSetup.getDeltaE0() / 2.355, 2);
+
+        //Calculate ion energy after scattering at the surface
+        projectile.setE(E);
+        double K = KinematicsCalculator.getBSKFactorA(projectile, M2, theta);
+        double E_det = K * E;
+
+        //Calculate energy and corresponding channel of the back scattered ion at the detector
+        E_det          = getDetectorEnergy(foilTable, E_det) ;
+        double channel = Math.floor((E_det - b) / a)         ;
+        double E_det_b = (a * channel + b)                   ;
+
+        //Set start conditions for brick calculations
+        double thicknessConversionFactor = conversionFactors[layerIndex] ;
+        double sumLayerThicknesses       = layerThicknesses[layerIndex]  ;
+        double depth                     = 0.0                           ;
+        double targetThickness           = paths.targetThickness         ;
+
+        //Resume behind the upper layers the target has in common with the brick spectra's source
+        BrickSpectra.BrickState state = brickSpectra != null ? brickSpectra.resume(isotopeIndex, isotopeFitData, Q)
+                                                             : null;
+        if (state != null) {
+
+            channel = state.channel;
+
+            if (state.finished) {
+                stopSimulation = true;
+            } else {
+                layerIndex                = state.layerIndex                              ;
+                thicknessConversionFactor = conversionFactors[layerIndex]                 ;
+                depth                     = state.depth                                   ;
+                sumLayerThicknesses       = depth + layerThicknesses[layerIndex]          ;
+                c                         = isotopeFitData.concentrations[layerIndex]     ;
+                E_det                     = state.E_det                                   ;
+                E_det_b                   = state.E_det_b                                 ;
+                dx                        = state.dx                                      ;
+                lowestChannel             = state.lowestChannel                           ;
+                stopSimulation            = !containsIsotope(isotopeFitData, layerIndex)  ;
+            }
+        }
+
+        //Stepwise construct bricks and their contribution to the spectrum
+        while (E_det > E_CUTOFF && depth < targetThickness && !stopSimulation) {
+
+            //Find the brick's end, i.e. the depth at which the detected energy drops to the channel boundary
+            //(thickness = 0 if the brick's front is already below the channel boundary, e.g. right after an interface)
+            double brickThickness = 0.0;
+            if (E_det > E_det_b) {
+                double guess = dx * Math.min((E_det - E_det_b) / a, 1.0d);
+                brickThickness = findBrickEnd(ws, incomingEnergyProfile, exitEnergyTable, foilTable, K, depth, E_det,
+                        E_det_b, guess, tolerance, targetThickness) - depth;
+            }
+
+            //Check if we have passed the interface to next layer
+            double oldDepth = depth;
+            depth += brickThickness;
+
+            if (depth > sumLayerThicknesses && layerIndex < numberOfLayers-1) {
+                interfaceReached = true;
+                brickThickness = sumLayerThicknesses - oldDepth;
+                depth = sumLayerThicknesses;
+            }
+
+            //The last brick ends at the target's back side, the brick end search may overshoot it by rounding
+            if (depth > targetThickness) {
+                brickThickness = targetThickness - oldDepth;
+                depth = targetThickness;
+            }
+
+            //Calculate ion energy at the brick's back side (= next brick's front side)
+            E = incomingEnergyProfile.getEnergy(depth);
+
+            //Ions below the cut off energy do not contribute, the cross section diverges for E -> 0
+            if (E > E_CUTOFF && channel < numberOfChannels-1) {
+
+                //Calculate brick's contribution to the spectrum
+                double AD = brickThickness / thicknessConversionFactor * 1000.0;
+                double sigma = crossSection.getCrossSection(E);
+                double Y_brick = 6.24E-3 * Q * AD * sigma * omega * c;
+
+                //The first brick behind an interface shares its channel with the last brick in front of it
+                int row = singleSpectrum ? 0 : layerIndex;
+                isotopeFitData.spectra[row][(int) channel] += Y_brick;
+                isotopeFitData.extendChannelRange(row, (int) channel);
+
+                //Calculate current brick's straggling contribution
+                calculateStraggling(input, incomingEnergyProfile, exitEnergyTable, foilTable, E, str2_0, Z2, depth,
+                        K, isotopeFitData, channel);
+            }
+
+            //Set next brick's detector energies
+            if (interfaceReached) {
+
+                //Calculate energy of the back scattered ion at the surface
+                E_det = exitEnergyTable.getSurfaceEnergy(K * E, depth);
+
+                //Calculate energy of the back scattered ion at the detector
+                E_det = getDetectorEnergy(foilTable, E_det);
+
+                layerIndex++;
+                thicknessConversionFactor = conversionFactors[layerIndex];
+                sumLayerThicknesses += layerThicknesses[layerIndex];
+                c = isotopeFitData.concentrations[layerIndex];
+                interfaceReached = false;
+
+                if (brickSpectra != null) {
+                    BrickSpectra.BrickState layerState = brickSpectra.getState(isotopeIndex, layerIndex);
+                    layerState.layerIndex    = layerIndex    ;
+                    layerState.depth         = depth         ;
+                    layerState.E_det         = E_det         ;
+                    layerState.E_det_b       = E_det_b       ;
+                    layerState.channel       = channel       ;
+                    layerState.dx            = dx            ;
+                    layerState.lowestChannel = lowestChannel ;
+                    brickSpectra.storeState(layerState, isotopeFitData);
+                }
+
+                //Look if this was the last layer containing the current isotope
+                stopSimulation = !containsIsotope(isotopeFitData, layerIndex);
+
+            } else {
+
+                //A brick starting inside a channel (at the surface or an interface) only covers a part of it
+                if (brickThickness > 0.0) dx = brickThickness * a / (E_det - E_det_b);
+
+                E_det = E_det_b;
+                E_det_b = E_det_b - a;
+
+                channel--;
+            }
+
+            //Below the window, bricks only contribute via the tail of the convolution kernel. Its width is known as
+            //soon as the straggling of all window channels has been calculated.
+            if (firstChannel > 0 && channel < firstChannel) {
+                if (lowestChannel < 0.0) {
+                    double resolution = brickSpectra != null ? brickSpectra.getMaxResolution()
+                                                             : detectorSetup.getResolution();
+                    lowestChannel = firstChannel - getConvolutionMargin(resolution, isotopeFitData, a, firstChannel,
+                            lastChannel);
+                }
+                if (channel < lowestChannel) stopSimulation = true;
+            }
+        }
+
+        if (brickSpectra != null) brickSpectra.store(isotopeIndex, isotopeFitData, channel);
+
+        //Make convolution of simulated spectrum with straggling and detector resolution
+        if (channel < numberOfChannels-1) {
+            convolveSpectrum(input, ws, detectorSetup, isotopeFitData, a, b, channel, firstChannel, lastChannel);
+        }
+
+        //Reset the projectile's initial energy
+        projectile.setE(E0);
+    }
+
+    /**
+     * Depth at which the detected energy of ions scattered at that depth drops to E_det_b. The first step dx is the
+     * secant guess of the previous brick's slope, in most bricks the root then follows from this single evaluation.
+     * Otherwise the root is bracketed by secant extrapolation (step at most doubled) and found by regula falsi
+     * (Illinois variant) to an accuracy of tolerance [keV]. The bracket ends at xMax (the target's back side), xMax is
+     * returned if the detected energy is still above E_det_b there.
+     */
+    static double findBrickEnd(SimulationWorkspace ws, IncomingEnergyProfile incomingEnergyProfile,
+                               ExitEnergyTable exitEnergyTable, FoilTransferTable foilTable, double K, double x0,
+                               double E_det0, double E_det_b, double dx, double tolerance, double xMax) {
+
+        double f0 = E_det0 - E_det_b                                                                             ;
+        double x1 = Math.min(x0 + dx, xMax)                                                                      ;
+        double f1 = getDetectorEnergy(ws, incomingEnergyProfile, exitEnergyTable, foilTable, K, x1) - E_det_b ;
+
+        //The first step comes from the previous brick's slope, so its miss f1 is caused by the change of the slope.
+        //The secant's root is then off by about f1^2 / (2 (f0 - f1)) and can be taken without an evaluation.
+        if (f0 > f1 && f1 * f1 <= tolerance * (f0 - f1)) return Math.min(x1 + f1 * (x1 - x0) / (f0 - f1), xMax);
+
+        //Bracket the brick's end, aiming slightly behind the secant's root
+        for (int i=0; f1 > tolerance; i++) {
+
+            if (i == MAX_EXPANSIONS || x1 >= xMax) return x1;
+
+            double step = 2.0d * dx;
+            if (f0 > f1) step = Math.min(step, (1.0d + BRACKET_OVERSHOOT) * f1 * dx / (f0 - f1));
+
+            x0 = x1;
+            f0 = f1;
+            dx = step;
+            x1 = Math.min(x0 + dx, xMax);
+            f1 = getDetectorEnergy(ws, incomingEnergyProfile, exitEnergyTable, foilTable, K, x1) - E_det_b;
+        }
+
+        if (Math.abs(f1) <= tolerance) return x1;
+
+        //Regula falsi, the function value of an end point which is kept twice in a row is halved (Illinois)
+        int    side = 0  ;
+        double x    = x1 ;
+
+        for (int i=0; i<MAX_ITERATIONS && x1 - x0 > MIN_BRACKET_WIDTH; i++) {
+
+            x = x0 + f0 * (x1 - x0) / (f0 - f1);
+            double f = getDetectorEnergy(ws, incomingEnergyProfile, exitEnergyTable, foilTable, K, x) - E_det_b;
+
+            if (Math.abs(f) <= tolerance) return x;
+
+            if (f > 0.0d) {
+                x0 = x;
+                f0 = f;
+                if (side == 1) f1 *= 0.5d;
+                side = 1;
+            } else {
+                x1 = x;
+                f1 = f;
+                if (side == -1) f0 *= 0.5d;
+                side = -1;
+            }
+        }
+
+        return x;
+    }
+
+    //Detected energy of ions scattered at depth x, counted in the workspace's brick end evaluations
+    private static double getDetectorEnergy(SimulationWorkspace ws, IncomingEnergyProfile incomingEnergyProfile,
+                                            ExitEnergyTable exitEnergyTable, FoilTransferTable foilTable, double K,
+                                            double x) {
+
+        ws.brickEndEvaluations++;
+
+        double E = incomingEnergyProfile.getEnergy(x);
+        return getDetectorEnergy(foilTable, exitEnergyTable.getSurfaceEnergy(K * E, x));
+    }
+
+    private static double getDetectorEnergy(FoilTransferTable foilTable, double E_surface) {
+
+        if (foilTable == null) return E_surface;
+        return foilTable.getExitEnergy(E_surface);
+    }
+
+    /**
+     * Builds the foil's transfer table once per input (and all its variants), if the foil is enabled and not
+     * negligibly thin. The foil's layers are passed in list order.
+     */
+    private void prepareFoilTransferTable(SimulationInput input, SimulationWorkspace ws) {
+
+        CalculationSetup calculationSetup = input.calculationSetup ;
+        Target           foil             = input.foil             ;
+
+        if (!calculationSetup.isSimulateFoil() || foil.getTotalThickness() <= MIN_FOIL_THICKNESS) return;
+        if (input.foilTransferTable.get() != null) return;
+
+        Projectile projectile     = ws.projectile                              ;
+        double     E0             = input.experimentalSetup.getE0()            ;
+        double     Z1             = projectile.getZ()                          ;
+        int        numberOfLayers = foil.getLayerList().size()                 ;
+        int        numberOfSteps  = FoilTransferTable.getNumberOfEnergies()    ;
+        double     dE_table       = E0 / (numberOfSteps - 1)                   ;
+
+        StoppingCalculationMode sm = calculationSetup.getStoppingPowerCalculationMode() ;
+        CompoundCalculationMode cm = calculationSetup.getCompoundCalculationMode()      ;
+
+        double[]   arealDensities = new double[numberOfLayers]                ;
+        double[]   bohrFactors    = new double[numberOfLayers]                ;
+        double[][] stopping       = new double[numberOfLayers][numberOfSteps] ;
+        double[]   energies       = new double[numberOfSteps]                 ;
+
+        for (int i=0; i<numberOfSteps; i++) energies[i] = Math.max(i * dE_table, E_CUTOFF);
+
+        for (int l=0; l<numberOfLayers; l++) {
+
+            Layer layer = foil.getLayerList().get(l);
+
+            //Bohr straggling with the layer's mean atomic number
+            double Z2 = 0.0d, sumOfRatios = 0.0d;
+            for (Element element : layer.getElementList()) {
+                Z2          += element.getRatio() * element.getAtomicNumber();
+                sumOfRatios += element.getRatio();
+            }
+            if (sumOfRatios > 0.0d) Z2 /= sumOfRatios;
+
+            arealDensities[l] = layer.getArealDensity() ;
+            bohrFactors[l]    = 0.26E-3 * Z1 * Z1 * Z2  ;
+
+            StoppingLookUpTable table = null;
+            if (calculationSetup.isUseLookUpTable()) {
+                table = stoppingTableCache.getTable(ws.stoppingCalculator, projectile, layer, sm, cm,
+                        calculationSetup.getCorrectionFactors(), E_CUTOFF, input.stoppingTableEMax,
+                        calculationSetup.getStoppingTableTolerance());
+            }
+
+            if (table != null) {
+                for (int i=0; i<numberOfSteps; i++) stopping[l][i] = table.getStoppingPower(energies[i]) / 1000.0d;
+            } else {
+                ws.stoppingCalculator.getStoppingPowers(projectile.getZ(), projectile.getM(), layer, sm, cm, 2,
+                        energies, stopping[l]);
+                for (int i=0; i<numberOfSteps; i++) stopping[l][i] /= 1000.0d;
+            }
+        }
+
+        input.foilTransferTable.compareAndSet(null, new FoilTransferTable(arealDensities, stopping, bohrFactors, E0));
+    }
+
+    private void calculateStraggling(SimulationInput input, IncomingEnergyProfile incomingEnergyProfile,
+                                     ExitEnergyTable exitEnergyTable, FoilTransferTable foilTable, double E,
+                                     double str2_0, int Z2, double depth, double K, IsotopeFitData isotopeFitData,
+                                     double channel) {
+
+        if (input.calculationSetup.getStragglingMode() != StragglingMode.NONE) {
+
+            //Straggling of the incoming ion at the brick's back side
+            double gain_in = incomingEnergyProfile.getStragglingGain(depth) ;
+            double bohr_in = incomingEnergyProfile.getStragglingBohr(depth) ;
+            double str2_B  = gain_in * str2_0 + Z2 * bohr_in                  ;
+
+            //Propagate the straggling from the brick's back side to the surface
+            double str2_B_prime = K * K * str2_B                                       ;
+            double Eb_prime     = K * E                                                ;
+            double gain         = exitEnergyTable.getStragglingGain(Eb_prime, depth) ;
+            double bohr         = exitEnergyTable.getStragglingBohr(Eb_prime, depth) ;
+            double str2_F_prime = gain * str2_B_prime + Z2 * bohr                      ;
+
+            //Propagate the straggling through the foil
+            if (foilTable != null) {
+                double E_surface = exitEnergyTable.getSurfaceEnergy(Eb_prime, depth);
+                str2_F_prime = foilTable.getStragglingGain(E_surface) * str2_F_prime
+                             + foilTable.getStragglingBohr(E_surface);
+            }
+
+            isotopeFitData.straggling[(int) channel] = str2_F_prime;
+        } else {
+            isotopeFitData.straggling[(int) channel] = 0.0;
+        }
+    }
+
+    //True if the isotope is contained in the given layer or any deeper one
+    private boolean containsIsotope(IsotopeFitData isotopeFitData, int layerIndex) {
+
+        for (int l=layerIndex; l<isotopeFitData.concentrations.length; l++) {
+            if (isotopeFitData.concentrations[l] != 0.0) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Channel distance beyond which the convolution kernel of all window channels is zero. Both convolution methods
+     * cut the kernel at exp(-5) and use the variance of the output channel, the grouped one at most the largest
+     * variance of its group.
+     */
+    private int getConvolutionMargin(double resolution, IsotopeFitData isotopeFitData, double a,
+                                     int firstChannel, int lastChannel) {
+
+        double str2_max = 0.0d;
+        for (int ch=firstChannel; ch<=lastChannel; ch++) {
+            str2_max = Math.max(str2_max, isotopeFitData.straggling[ch]);
+        }
+        str2_max += Math.pow(resolution / 2.355, 2);
+
+        return (int) Math.ceil(Math.sqrt(10.0d * str2_max) / a) + 1;
+    }
+
+    private void convolveSpectrum(SimulationInput input, SimulationWorkspace ws, DetectorSetup detectorSetup,
+                                  IsotopeFitData isotopeFitData, double a, double b, double channel,
+                                  int firstChannel, int lastChannel) {
+
+        CalculationSetup calculationSetup = input.calculationSetup ;
+        int              numberOfChannels = input.numberOfChannels ;
+
+        double detRes                = detectorSetup.getResolution()                 ;
+        double str2_det              = Math.pow(detRes / 2.355,2)                    ;
+        int    sx                    = isotopeFitData.spectra.length                 ;
+
+        //Fill the none simulated part of the simulate isotope spectrum with last straggling value
+        for (int i=(int)channel; i>=0; i--) {
+            isotopeFitData.straggling[i] = isotopeFitData.straggling[(int)channel+1];
+        }
+
+        //Do grouped kernel / FFT convolution
+        if (calculationSetup.getConvolutionMode() == ConvolutionMode.FAST) {
+            double tolerance = calculationSetup.getConvolutionTolerance();
+            ws.spectrumConvolver.convolve(isotopeFitData.spectra, isotopeFitData.firstChannel,
+                    isotopeFitData.lastChannel, isotopeFitData.straggling, str2_det, a, tolerance, firstChannel,
+                    lastChannel);
+            return;
+        }
+
+        //Only channels within the kernel width of a spectrum's channel range can get a contribution
+        int margin = getConvolutionMargin(detRes, isotopeFitData, a, firstChannel, lastChannel);
+
+        double convolutedSpectra[][] = ws.getConvolutionBuffer(sx, numberOfChannels);
+
+        //Do convolution
+        for (int layerIndex=0; layerIndex<sx; layerIndex++) {
+
+            int first = isotopeFitData.firstChannel[layerIndex] ;
+            int last  = isotopeFitData.lastChannel[layerIndex]  ;
+
+            if (last < first) continue;
+
+            double[] spectrum   = isotopeFitData.spectra[layerIndex] ;
+            double[] convoluted = convolutedSpectra[layerIndex]      ;
+            int      newFirst   = numberOfChannels                   ;
+            int      newLast    = -1                                 ;
+
+            for (int ch=Math.max(firstChannel, first-margin); ch<=Math.min(lastChannel, last+margin); ch++) {
+
+                double str2_total = str2_det + isotopeFitData.straggling[ch]    ;
+                double fact       = 1.0 / Math.sqrt(2.0*Math.PI*str2_total)     ;
+                double Ei         = a * ch + b                                  ;
+                double Si         = 0.0                                         ;
+
+                for (int j=first; j<=last; j++) {
+
+                    double Nj = spectrum[j];
+                    double Sjj = 0.0;
+
+                    if (Nj > 0) {
+                        double Ej = a * j + b;
+                        double argument = -0.5 * (Ei - Ej) * (Ei - Ej) / (str2_total);
+                        if (argument > -5.0) { Sjj = Nj * Math.exp(argument); }
+                    }
+
+                    Si += Sjj;
+                }
+                convoluted[ch] = fact*Si*a;
+
+                if (convoluted[ch] != 0.0) {
+                    if (ch < newFirst) newFirst = ch;
+                    newLast = ch;
+                }
+            }
+
+            //Replace original simulated spectrum with the convoluted one
+            Arrays.fill(spectrum, first, last+1, 0.0);
+            if (newLast >= newFirst) System.arraycopy(convoluted, newFirst, spectrum, newFirst, newLast-newFirst+1);
+
+            isotopeFitData.firstChannel[layerIndex] = newFirst ;
+            isotopeFitData.lastChannel[layerIndex]  = newLast  ;
+        }
+    }
+
+    private void buildPathTables(SimulationInput input, SimulationWorkspace ws) {
+
+        Projectile projectile     = ws.projectile                          ;
+        double     E0             = input.experimentalSetup.getE0()        ;
+        double     Z1             = projectile.getZ()                      ;
+        Target     target         = input.target                           ;
+        int        numberOfLayers = target.getLayerList().size()           ;
+        int        numberOfSteps  = ExitEnergyTable.getNumberOfEnergies()  ;
+
+        double[]   layerThicknesses  = ws.layerThicknesses      ;
+        double[]   conversionFactors = ws.conversionFactors     ;
+        double[]   bohrFactors       = ws.bohrFactors           ;
+        double[][] stopping          = ws.pathStopping          ;
+        double[]   energies          = ws.pathEnergies          ;
+        double     dE_table          = E0 / (numberOfSteps - 1) ;
+
+        CalculationSetup        calculationSetup = input.calculationSetup                             ;
+        StoppingCalculationMode sm               = calculationSetup.getStoppingPowerCalculationMode() ;
+        CompoundCalculationMode cm               = calculationSetup.getCompoundCalculationMode()      ;
+
+        for (int i=0; i<numberOfSteps; i++) energies[i] = Math.max(i * dE_table, E_CUTOFF);
+
+        ws.targetThickness = 0.0d;
+
+        for (int l=0; l<numberOfLayers; l++) {
+
+            Layer  layer                     = target.getLayerList().get(l)                  ;
+            double thicknessConversionFactor = layer.getThicknessConversionFactor() * 1000.0 ;
+
+            layerThicknesses[l]  = layer.getThickness()                             ;
+            conversionFactors[l] = thicknessConversionFactor                        ;
+            bohrFactors[l]       = 0.26 * Z1 * Z1 / thicknessConversionFactor       ;
+            ws.targetThickness  += layerThicknesses[l]                              ;
+
+            if (calculationSetup.isUseLookUpTable()) {
+                StoppingLookUpTable table = ws.stoppingTables[l];
+                for (int i=0; i<numberOfSteps; i++) {
+                    stopping[l][i] = table.getStoppingPower(energies[i]) / thicknessConversionFactor;
+                }
+            } else {
+                ws.stoppingCalculator.getStoppingPowers(projectile.getZ(), projectile.getM(), layer, sm, cm, 2,
+                        energies, stopping[l]);
+                for (int i=0; i<numberOfSteps; i++) stopping[l][i] /= thicknessConversionFactor;
+            }
+        }
+
+        ws.incomingEnergyProfile.calculate(layerThicknesses, stopping, bohrFactors, E0, E_CUTOFF,
+                input.experimentalSetup.getAlpha());
+    }
+
+    //Outgoing path of one detector, uses the stopping tabulated by buildPathTables()
+    private void buildExitEnergyTable(SimulationInput input, SimulationWorkspace ws, double beta) {
+
+        ws.exitEnergyTable.calculate(ws.layerThicknesses, ws.pathStopping, ws.bohrFactors,
+                input.experimentalSetup.getE0(), E_CUTOFF, beta);
+    }
+
+    private void preCalcStoppingValues(SimulationInput input, SimulationWorkspace ws) {
+
+        CalculationSetup calculationSetup = input.calculationSetup                       ;
+        Target           target           = input.target                                 ;
+        int              numberOfLayers   = target.getLayerList().size()                 ;
+        double           EMax             = input.stoppingTableEMax                      ;
+        double           maxError         = calculationSetup.getStoppingTableTolerance() ;
+
+        if (!calculationSetup.isUseLookUpTable()) return;
+
+        StoppingCalculationMode sm = calculationSetup.getStoppingPowerCalculationMode() ;
+        CompoundCalculationMode cm = calculationSetup.getCompoundCalculationMode()      ;
+
+        for (int l=0; l<numberOfLayers; l++) {
+            ws.stoppingTables[l] = stoppingTableCache.getTable(ws.stoppingCalculator, ws.projectile,
+                    target.getLayerList().get(l), sm, cm, calculationSetup.getCorrectionFactors(), E_CUTOFF, EMax,
+                    maxError);
+        }
+    }
+
+    private void generateIsotopeList(SimulationWorkspace ws, Target target, int numberOfLayers,
+                                     int numberOfChannels) {
+
+        List<IsotopeFitData> isotopeList = ws.isotopeList;
+        boolean addIt;
+        int layerIndex = 0;
+
+        ws.clearIsotopeList();
+
+        for (Layer layer : target.getLayerList()) {
+            for (Element element : layer.getElementList()) {
+                int Z = element.getAtomicNumber();
+                for (Isotope isotope : element.getIsotopeList()) {
+                    double M = isotope.getMass();
+                    double c = layer.getIsotopeContribution(Z, M);
+                    addIt = true;
+                    for (int i=0; i<isotopeList.size(); i++) {
+                        IsotopeFitData isotopeFitData = isotopeList.get(i);
+                        if (isotopeFitData.Z == Z && isotopeFitData.M == M) {
+                            addIt = false;
+                            isotopeFitData.concentrations[layerIndex] = c;
+                            break;
+                        }
+                    }
+                    if (addIt) {
+                        ws.addIsotope(Z, M, numberOfLayers, numberOfChannels).concentrations[layerIndex] = c;
+                    }
+                }
+            }
+            layerIndex++;
+        }
+    }
+
+    private void generateSimplifiedIsotopeList(SimulationWorkspace ws, Target target, int numberOfLayers,
+                                               int numberOfChannels) {
+
+        List<IsotopeFitData> isotopeList = ws.isotopeList;
+        boolean addIt;
+        int layerIndex = 0;
+
+        ws.clearIsotopeList();
+
+        for (Layer layer : target.getLayerList()) {
+            for (Element element : layer.getElementList()) {
+                int Z = element.getAtomicNumber();
+
+                double M = element.getAverageMass();
+                double c = layer.getElementContribution(Z);
+                addIt = true;
+                for (int i=0; i<isotopeList.size(); i++) {
+                    IsotopeFitData isotopeFitData = isotopeList.get(i);
+                    if (isotopeFitData.Z == Z) {
+                        addIt = false;
+                        isotopeFitData.concentrations[layerIndex] = c;
+                        break;
+                    }
+                }
+                if (addIt) {
+                    ws.addIsotope(Z, M, numberOfLayers, numberOfChannels).concentrations[layerIndex] = c;
+                }
+            }
+            layerIndex++;
+        }
+    }
+
+    private double calFitness(SimulationInput input, double[] simulatedSpectrum){
+
+        return calFitness(input, simulatedSpectrum, 1.0d);
+    }
+
+    //Fitness of the simulated spectrum scaled with the given factor
+    private double calFitness(SimulationInput input, double[] simulatedSpectrum, double scale){
+
+        double sigma2 = 0.0f;
+
+        for (int i=input.startChannel; i<input.stopChannel; i++){
+            sigma2 += Math.pow(input.experimentalSpectrum[i]-scale*simulatedSpectrum[i],2);
+        }
+
+        //sigma2 = 100.0f / (Math.log(sigma2) - Math.log(LFF));
+        sigma2 = input.LFF / sigma2 * 100.0f;
+        return sigma2;
+    }
+}
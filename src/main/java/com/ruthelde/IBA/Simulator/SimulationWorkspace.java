@@ -0,0 +1,192 @@
+package com.ruthelde.IBA.Simulator;
+
+import com.ruthelde.IBA.CalculationSetup.ScreeningMode;
+import com.ruthelde.IBA.Kinematics.CrossSectionProvider;
+import com.ruthelde.Stopping.StoppingCalculator;
+import com.ruthelde.Stopping.StoppingLookUpTable;
+import com.ruthelde.Target.Element;
+import com.ruthelde.Target.Projectile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Mutable scratch data of one simulating thread. A workspace is never shared between threads, so the kernel may
+ * freely modify its projectile, stopping calculator and buffers while simulating. All buffers are kept between
+ * simulations and only reallocated if they are too small, so repeated simulations of similar inputs do not
+ * allocate memory within the kernel.
+ */
+class SimulationWorkspace {
+
+    private static final double[] NO_CORRECTION = new double[Element.MAX_ATOMIC_NUMBER];
+
+    //A fit only uses a few isotopes and detectors, the pool is cleared if the inputs keep changing
+    private static final int MAX_CROSS_SECTIONS = 256;
+
+    static {
+        Arrays.fill(NO_CORRECTION, 1.0d);
+    }
+
+    final Projectile         projectile         ;
+    final StoppingCalculator stoppingCalculator ;
+    final SpectrumConvolver  spectrumConvolver  ;
+
+    //Stopping look up tables (one per layer) of the current simulation
+    StoppingLookUpTable[] stoppingTables ;
+
+    //Path tables of the current simulation and their input
+    final IncomingEnergyProfile incomingEnergyProfile ;
+    final ExitEnergyTable       exitEnergyTable       ;
+    double[]                    layerThicknesses      ;
+    double[]                    conversionFactors     ; //Thickness conversion factors * 1000
+    double                      targetThickness       ;
+    double[]                    bohrFactors           ;
+    double[][]                  pathStopping          ;
+    double[]                    pathEnergies          ;
+
+    //Isotope spectra of the current simulation, taken from the pool
+    final         List<IsotopeFitData> isotopeList ;
+    private final List<IsotopeFitData> isotopePool ;
+
+    //Cross sections of all isotope and detector combinations simulated so far
+    private final List<CrossSectionProvider> crossSectionPool ;
+
+    //Sum spectrum of the current simulation and whether it was aborted by the early rejection
+    double[] simulatedSpectrum ;
+    boolean  aborted           ;
+
+    //Buffer for the direct convolution
+    double[][] convolutedSpectra ;
+
+    //Number of detected energy evaluations of the brick end search, for benchmarks
+    long brickEndEvaluations ;
+
+    SimulationWorkspace() {
+
+        projectile            = new Projectile()            ;
+        stoppingCalculator    = new StoppingCalculator()    ;
+        spectrumConvolver     = new SpectrumConvolver()     ;
+        stoppingTables        = new StoppingLookUpTable[0]  ;
+        incomingEnergyProfile = new IncomingEnergyProfile() ;
+        exitEnergyTable       = new ExitEnergyTable()       ;
+        layerThicknesses      = new double[0]               ;
+        conversionFactors     = new double[0]               ;
+        bohrFactors           = new double[0]               ;
+        pathStopping          = new double[0][0]            ;
+        pathEnergies          = new double[0]               ;
+        isotopeList           = new ArrayList<>()           ;
+        isotopePool           = new ArrayList<>()           ;
+        crossSectionPool      = new ArrayList<>()           ;
+        simulatedSpectrum     = new double[0]               ;
+        convolutedSpectra     = new double[0][0]            ;
+    }
+
+    /**
+     * Sets the projectile and the stopping correction factors according to the given input.
+     */
+    void prepare(SimulationInput input) {
+
+        Projectile source = input.experimentalSetup.getProjectile();
+
+        projectile.setZ(source.getZ());
+        projectile.setM(source.getM());
+        projectile.setE(input.experimentalSetup.getE0());
+
+        //Reset factors of a previous input if none are set
+        double[] correctionFactors = input.calculationSetup.getCorrectionFactors();
+        stoppingCalculator.setCorrectionFactors(correctionFactors != null ? correctionFactors : NO_CORRECTION);
+    }
+
+    /**
+     * Sizes the per layer buffers of the stopping and path tables.
+     */
+    void prepareLayers(int numberOfLayers, int numberOfEnergies) {
+
+        if (stoppingTables.length != numberOfLayers) stoppingTables = new StoppingLookUpTable[numberOfLayers];
+
+        if (layerThicknesses.length != numberOfLayers) {
+            layerThicknesses  = new double[numberOfLayers];
+            conversionFactors = new double[numberOfLayers];
+            bohrFactors       = new double[numberOfLayers];
+        }
+
+        if (pathStopping.length != numberOfLayers || (numberOfLayers > 0 && pathStopping[0].length != numberOfEnergies)) {
+            pathStopping = new double[numberOfLayers][numberOfEnergies];
+        }
+
+        if (pathEnergies.length != numberOfEnergies) pathEnergies = new double[numberOfEnergies];
+    }
+
+    void clearIsotopeList() {
+        isotopeList.clear();
+    }
+
+    /**
+     * Clears the spectra of all isotopes in the list, e.g. to simulate them for another detector.
+     */
+    void clearIsotopeSpectra() {
+        for (IsotopeFitData isotopeFitData : isotopeList) isotopeFitData.clearSpectra();
+    }
+
+    /**
+     * Appends an isotope with all concentrations, spectra and straggling values set to zero to the isotope list.
+     */
+    IsotopeFitData addIsotope(int Z, double M, int numberOfLayers, int numberOfChannels) {
+
+        int            index          = isotopeList.size()                                         ;
+        IsotopeFitData isotopeFitData = index < isotopePool.size() ? isotopePool.get(index) : null ;
+
+        if (isotopeFitData == null || isotopeFitData.concentrations.length != numberOfLayers
+                || isotopeFitData.straggling.length != numberOfChannels) {
+
+            isotopeFitData = new IsotopeFitData(Z, M, new double[numberOfLayers], numberOfChannels);
+            if (index < isotopePool.size()) isotopePool.set(index, isotopeFitData); else isotopePool.add(isotopeFitData);
+
+        } else {
+
+            isotopeFitData.Z = Z;
+            isotopeFitData.M = M;
+            Arrays.fill(isotopeFitData.concentrations, 0.0d);
+            isotopeFitData.clearSpectra();
+        }
+
+        isotopeList.add(isotopeFitData);
+        return isotopeFitData;
+    }
+
+    /**
+     * Cross section of the given projectile, isotope and angle, taken from the pool if it was used before.
+     */
+    CrossSectionProvider getCrossSection(Projectile projectile, int Z2, double M2, double theta,
+                                         ScreeningMode screeningMode) {
+
+        for (int i=0; i<crossSectionPool.size(); i++) {
+            CrossSectionProvider crossSection = crossSectionPool.get(i);
+            if (crossSection.matches(projectile, Z2, M2, theta, screeningMode)) return crossSection;
+        }
+
+        if (crossSectionPool.size() == MAX_CROSS_SECTIONS) crossSectionPool.clear();
+
+        CrossSectionProvider crossSection = new CrossSectionProvider(projectile, Z2, M2, theta, screeningMode);
+        crossSectionPool.add(crossSection);
+        return crossSection;
+    }
+
+    double[] getSimulatedSpectrum(int numberOfChannels) {
+
+        if (simulatedSpectrum.length != numberOfChannels) {
+            simulatedSpectrum = new double[numberOfChannels];
+        } else {
+            Arrays.fill(simulatedSpectrum, 0.0d);
+        }
+        return simulatedSpectrum;
+    }
+
+    double[][] getConvolutionBuffer(int rows, int columns) {
+
+        if (convolutedSpectra.length < rows || convolutedSpectra[0].length != columns) {
+            convolutedSpectra = new double[rows][columns];
+        }
+        return convolutedSpectra;
+    }
+}
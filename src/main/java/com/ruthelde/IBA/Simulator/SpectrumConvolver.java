@@ -0,0 +1,357 @@
+package com.ruthelde.IBA.Simulator;
+
+import java.util.Arrays;
+
+/**
+ * Convolution of simulated brick spectra with a Gaussian whose width depends on the channel (detector resolution
+ * plus energy straggling). Neighbouring channels whose total width differs by less than a given tolerance are
+ * grouped and share one truncated kernel, which is calculated only once per group. Each group is then convolved
+ * either directly with the truncated kernel or via FFT, depending on which of both is cheaper.
+ */
+public class SpectrumConvolver {
+
+    private static final double CUT_OFF  = 5.0d ; //Same cut off as used by the direct convolution (exp(-5))
+    private static final double FFT_COST = 4.0d ; //Estimated cost of one FFT butterfly relative to one multiply-add
+
+    private double[][] source        ;
+    private boolean[]  activeRows    ;
+    private int[]      newFirst      ; //Channel ranges of the convoluted rows
+    private int[]      newLast       ;
+    private double[]   kernel        ;
+    private int[]      groupStart    ;
+    private int[]      groupEnd      ;
+    private double[]   groupVariance ;
+    private int        numberOfGroups;
+
+    private int        fftLength     ;
+    private double[][] rowRe, rowIm  ;
+    private double[]   kernelRe, kernelIm, tempRe, tempIm, cosTable, sinTable ;
+
+    public SpectrumConvolver() {
+        kernel     = new double[0]  ;
+        activeRows = new boolean[0] ;
+        newFirst   = new int[0]     ;
+        newLast    = new int[0]     ;
+    }
+
+    /**
+     * Replaces each row of <code>spectra</code> by its convolution with a Gaussian of variance
+     * (str2_det + straggling[ch]) [keV^2]. <code>a</code> is the detector calibration factor [keV/ch].
+     * The tolerance is the maximum relative deviation of the total width of all channels sharing one kernel.
+     *
+     * The spectra have to be zero outside firstChannels[row]..lastChannels[row] (empty if last < first). Only channels
+     * within the kernel width of these ranges are calculated and the ranges are updated to the ones of the convoluted
+     * spectra. The convolution is only evaluated for the channels firstChannel..lastChannel, all other channels are
+     * zero afterwards.
+     */
+    public void convolve(double[][] spectra, int[] firstChannels, int[] lastChannels, double[] straggling,
+                         double str2_det, double a, double tolerance, int firstChannel, int lastChannel) {
+
+        int numberOfRows     = spectra.length    ;
+        int numberOfChannels = straggling.length ;
+
+        //Keep a copy of the unconvoluted spectra, since the result is written back in place. Only the channel range of
+        //a row is copied, everything outside of it is never read.
+        if (source == null || source.length < numberOfRows || source[0].length != numberOfChannels) {
+            source = new double[numberOfRows][numberOfChannels];
+        }
+
+        if (activeRows.length < numberOfRows) {
+            activeRows = new boolean[numberOfRows];
+            newFirst   = new int[numberOfRows];
+            newLast    = new int[numberOfRows];
+        }
+        int numberOfActiveRows = 0;
+
+        for (int row=0; row<numberOfRows; row++) {
+
+            int first = firstChannels[row] ;
+            int last  = lastChannels[row]  ;
+
+            activeRows[row] = last >= first;
+            newFirst[row]   = numberOfChannels;
+            newLast[row]    = -1;
+
+            if (!activeRows[row]) continue;
+
+            System.arraycopy(spectra[row], first, source[row], first, last - first + 1);
+            Arrays.fill(spectra[row], first, last + 1, 0.0d);
+            numberOfActiveRows++;
+        }
+
+        if (numberOfActiveRows == 0) return;
+
+        makeGroups(straggling, str2_det, tolerance, firstChannel, lastChannel);
+
+        boolean rowsTransformed = false;
+
+        for (int g=0; g<numberOfGroups; g++) {
+
+            int    start  = groupStart[g]    ;
+            int    end    = groupEnd[g]      ;
+            double str2   = groupVariance[g] ;
+
+            if (str2 <= 0.0d) {
+
+                //No broadening at all -> keep the spectrum as it is
+                for (int row=0; row<numberOfRows; row++) {
+                    if (!activeRows[row]) continue;
+                    int lo = Math.max(start, firstChannels[row]);
+                    int hi = Math.min(end, lastChannels[row]);
+                    for (int ch=lo; ch<=hi; ch++) spectra[row][ch] = source[row][ch];
+                    extendRange(row, lo, hi);
+                }
+                continue;
+            }
+
+            int    halfWidth = getHalfWidth(str2, a, numberOfChannels) ;
+            double fact      = a / Math.sqrt(2.0d * Math.PI * str2)    ;
+
+            if (kernel.length < halfWidth + 1) kernel = new double[halfWidth + 1];
+            for (int k=0; k<=halfWidth; k++) {
+                kernel[k] = Math.exp(-0.5d * (a * k) * (a * k) / str2);
+            }
+
+            //Estimate whether direct convolution or FFT is cheaper for this group
+            int    m          = nextPowerOfTwo(numberOfChannels + halfWidth + 1);
+            double log2m      = Math.log(m) / Math.log(2.0d);
+            double directCost = 0.0d;
+            int    fftRows    = 0;
+
+            for (int row=0; row<numberOfRows; row++) {
+                if (!activeRows[row]) continue;
+                int lo    = Math.max(start, firstChannels[row] - halfWidth)                     ;
+                int hi    = Math.min(end, lastChannels[row] + halfWidth)                        ;
+                int width = Math.min(2 * halfWidth, lastChannels[row] - firstChannels[row]) + 1 ;
+                if (hi < lo) continue;
+                directCost += (double) (hi - lo + 1) * width;
+                fftRows++;
+            }
+
+            if (fftRows == 0) continue;
+
+            double fftCost = FFT_COST * m * log2m * (fftRows + 1);
+            if (!rowsTransformed || m != fftLength) fftCost += FFT_COST * m * log2m * numberOfActiveRows;
+
+            if (directCost <= fftCost) {
+
+                for (int row=0; row<numberOfRows; row++) {
+
+                    if (!activeRows[row]) continue;
+
+                    double[] src   = source[row]                        ;
+                    double[] dst   = spectra[row]                       ;
+                    int      first = firstChannels[row]                 ;
+                    int      last  = lastChannels[row]                  ;
+                    int      from  = Math.max(start, first - halfWidth) ;
+                    int      to    = Math.min(end, last + halfWidth)    ;
+
+                    for (int ch=from; ch<=to; ch++) {
+
+                        int lo = Math.max(first, ch - halfWidth);
+                        int hi = Math.min(last, ch + halfWidth);
+                        double sum = 0.0d;
+
+                        for (int j=lo; j<=hi; j++) {
+                            int k = ch - j;
+                            sum += src[j] * kernel[k < 0 ? -k : k];
+                        }
+
+                        dst[ch] = fact * sum;
+                    }
+                    extendRange(row, from, to);
+                }
+
+            } else {
+
+                if (!rowsTransformed || m != fftLength) {
+                    transformRows(numberOfRows, numberOfChannels, firstChannels, lastChannels, m);
+                    rowsTransformed = true;
+                }
+
+                //Transform the (symmetric) kernel
+                for (int i=0; i<m; i++) { kernelRe[i] = 0.0d; kernelIm[i] = 0.0d; }
+                kernelRe[0] = kernel[0];
+                for (int k=1; k<=halfWidth; k++) {
+                    kernelRe[k]     = kernel[k];
+                    kernelRe[m - k] = kernel[k];
+                }
+                fft(kernelRe, kernelIm, false);
+
+                for (int row=0; row<numberOfRows; row++) {
+
+                    if (!activeRows[row]) continue;
+
+                    int from = Math.max(start, firstChannels[row] - halfWidth) ;
+                    int to   = Math.min(end, lastChannels[row] + halfWidth)    ;
+
+                    if (to < from) continue;
+
+                    for (int i=0; i<m; i++) {
+                        double re = rowRe[row][i] * kernelRe[i] - rowIm[row][i] * kernelIm[i];
+                        double im = rowRe[row][i] * kernelIm[i] + rowIm[row][i] * kernelRe[i];
+                        tempRe[i] = re;
+                        tempIm[i] = im;
+                    }
+                    fft(tempRe, tempIm, true);
+
+                    for (int ch=from; ch<=to; ch++) {
+                        double value = fact * tempRe[ch] / m;
+                        spectra[row][ch] = value > 0.0d ? value : 0.0d;
+                    }
+                    extendRange(row, from, to);
+                }
+            }
+        }
+
+        for (int row=0; row<numberOfRows; row++) {
+            firstChannels[row] = newFirst[row] ;
+            lastChannels[row]  = newLast[row]  ;
+        }
+    }
+
+    private void extendRange(int row, int from, int to) {
+
+        if (to < from) return;
+        if (from < newFirst[row]) newFirst[row] = from;
+        if (to   > newLast[row])  newLast[row]  = to;
+    }
+
+    private void makeGroups(double[] straggling, double str2_det, double tolerance, int firstChannel,
+                            int lastChannel) {
+
+        int numberOfChannels = straggling.length;
+
+        if (groupStart == null || groupStart.length < numberOfChannels) {
+            groupStart    = new    int[numberOfChannels];
+            groupEnd      = new    int[numberOfChannels];
+            groupVariance = new double[numberOfChannels];
+        }
+
+        numberOfGroups = 0;
+
+        double sigmaMin = 0.0d;
+        double sigmaMax = 0.0d;
+
+        for (int ch=firstChannel; ch<=lastChannel; ch++) {
+
+            double sigma = Math.sqrt(str2_det + straggling[ch]);
+
+            if (ch > firstChannel) {
+                double newMin = Math.min(sigmaMin, sigma);
+                double newMax = Math.max(sigmaMax, sigma);
+
+                if (newMax <= newMin * (1.0d + tolerance)) {
+                    sigmaMin = newMin;
+                    sigmaMax = newMax;
+                    groupEnd[numberOfGroups-1]      = ch;
+                    groupVariance[numberOfGroups-1] = sigmaMin * sigmaMax;
+                    continue;
+                }
+            }
+
+            sigmaMin = sigma;
+            sigmaMax = sigma;
+            groupStart[numberOfGroups]    = ch;
+            groupEnd[numberOfGroups]      = ch;
+            groupVariance[numberOfGroups] = sigma * sigma;
+            numberOfGroups++;
+        }
+    }
+
+    private int getHalfWidth(double str2, double a, int numberOfChannels) {
+
+        //Largest channel distance k for which 0.5*(a*k)^2/str2 < CUT_OFF
+        int halfWidth = (int) Math.floor(Math.sqrt(2.0d * CUT_OFF * str2) / a);
+        while (halfWidth > 0 && 0.5d * (a * halfWidth) * (a * halfWidth) / str2 >= CUT_OFF) halfWidth--;
+        if (halfWidth > numberOfChannels - 1) halfWidth = numberOfChannels - 1;
+
+        return halfWidth;
+    }
+
+    private void transformRows(int numberOfRows, int numberOfChannels, int[] firstChannels, int[] lastChannels,
+                               int m) {
+
+        if (m != fftLength || rowRe.length < numberOfRows) {
+
+            fftLength = m;
+            rowRe     = new double[numberOfRows][m];
+            rowIm     = new double[numberOfRows][m];
+            kernelRe  = new double[m];
+            kernelIm  = new double[m];
+            tempRe    = new double[m];
+            tempIm    = new double[m];
+            cosTable  = new double[m/2];
+            sinTable  = new double[m/2];
+
+            for (int i=0; i<m/2; i++) {
+                cosTable[i] = Math.cos(2.0d * Math.PI * i / m);
+                sinTable[i] = Math.sin(2.0d * Math.PI * i / m);
+            }
+        }
+
+        for (int row=0; row<numberOfRows; row++) {
+
+            if (!activeRows[row]) continue;
+
+            for (int i=0; i<m; i++) {
+                rowRe[row][i] = i >= firstChannels[row] && i <= lastChannels[row] ? source[row][i] : 0.0d;
+                rowIm[row][i] = 0.0d;
+            }
+            fft(rowRe[row], rowIm[row], false);
+        }
+    }
+
+    /**
+     * In place radix-2 FFT. The length of both arrays has to be equal to the current fftLength.
+     */
+    private void fft(double[] re, double[] im, boolean inverse) {
+
+        int n = re.length;
+
+        //Bit reversal permutation
+        for (int i=1, j=0; i<n; i++) {
+
+            int bit = n >> 1;
+            for (; (j & bit) != 0; bit >>= 1) j ^= bit;
+            j ^= bit;
+
+            if (i < j) {
+                double t = re[i]; re[i] = re[j]; re[j] = t;
+                t = im[i]; im[i] = im[j]; im[j] = t;
+            }
+        }
+
+        double sign = inverse ? 1.0d : -1.0d;
+
+        for (int len=2; len<=n; len<<=1) {
+
+            int halfLen = len >> 1;
+            int step    = n / len;
+
+            for (int i=0; i<n; i+=len) {
+                for (int k=0; k<halfLen; k++) {
+
+                    double wRe = cosTable[k * step];
+                    double wIm = sign * sinTable[k * step];
+
+                    int    u   = i + k;
+                    int    v   = u + halfLen;
+                    double xRe = re[v] * wRe - im[v] * wIm;
+                    double xIm = re[v] * wIm + im[v] * wRe;
+
+                    re[v] = re[u] - xRe;
+                    im[v] = im[u] - xIm;
+                    re[u] += xRe;
+                    im[u] += xIm;
+                }
+            }
+        }
+    }
+
+    private static int nextPowerOfTwo(int n) {
+        int result = 1;
+        while (result < n) result <<= 1;
+        return result;
+    }
+}
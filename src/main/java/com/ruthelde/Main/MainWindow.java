@@ -418,7 +418,7 @@ public class MainWindow extends JFrame implements Observer {
         if (file != null) {
 
             Target target = targetModel.getTarget();
-            //Target foil = foilModel.getTarget(); //TODO: Include Foil
+            Target foil = foilModel.getTarget();
 
             WindowPositions wp = new WindowPositions();
 
@@ -452,8 +452,8 @@ public class MainWindow extends JFrame implements Observer {
             wp.eaStatusWindow.x = eaStatusWindow.getX();
             wp.eaStatusWindow.y = eaStatusWindow.getY();
 
-            DataFile dataFile = new DataFile(target, experimentalSetup, calculationSetup, detectorSetup, deParameter,
-                    spectrumSimulator.experimentalSpectrum, currentFileName, wp);
+            DataFile dataFile = new DataFile(target, foil, experimentalSetup, calculationSetup, detectorSetup,
+                    deParameter, spectrumSimulator.experimentalSpectrum, currentFileName, wp);
 
             try {
                 FileWriter fw = new FileWriter(file);
@@ -544,16 +544,24 @@ public class MainWindow extends JFrame implements Observer {
                 calculationSetup.setShowIsotopes(df.calculationSetup.isShowIsotopes());
                 calculationSetup.setShowLayers(df.calculationSetup.isShowLayers());
                 calculationSetup.setSimulateIsotopes(df.calculationSetup.isSimulateIsotopes());
+                calculationSetup.setParallelIsotopes(df.calculationSetup.isParallelIsotopes());
                 calculationSetup.setCorrectionFactors(df.calculationSetup.getCorrectionFactors());
+                calculationSetup.setStoppingPowerCalculationMode(df.calculationSetup.getStoppingPowerCalculationMode());
+                calculationSetup.setConvolutionMode(df.calculationSetup.getConvolutionMode());
+                calculationSetup.setConvolutionTolerance(df.calculationSetup.getConvolutionTolerance());
+                calculationSetup.setStoppingTableTolerance(df.calculationSetup.getStoppingTableTolerance());
+                calculationSetup.setSimulateFitWindowOnly(df.calculationSetup.isSimulateFitWindowOnly());
+                calculationSetup.setSimulateFoil(df.calculationSetup.isSimulateFoil());
+                calculationSetup.setBrickTolerance(df.calculationSetup.getBrickTolerance());
 
                 spectrumSimulator.setCalculationSetup(calculationSetup);
 
+                deParameter = df.deParameter;
+
                 blockEvents = true;
                 buildMenu();
                 blockEvents = false;
 
-                deParameter = df.deParameter;
-
                 spectrumSimulator.setStartChannel(deParameter.startCH);
                 spectrumSimulator.setStopChannel(deParameter.endCH);
                 tf_ch_min.setText("" + (int) df.deParameter.startCH);
@@ -563,7 +571,25 @@ public class MainWindow extends JFrame implements Observer {
                 targetModel.setTarget(df.target);
                 targetView.updateTarget();
 
-                //TODO: Include Foil
+                //Files written before the foil was saved keep the foil of the editor, but must not simulate it
+                if (df.foil != null) {
+                    foilModel.setTarget(df.foil);
+                    foilView.updateTarget();
+                } else if (calculationSetup.isSimulateFoil()) {
+                    System.out.println("Simulation file contains no foil, foil simulation disabled");
+                    calculationSetup.setSimulateFoil(false);
+                    blockEvents = true;
+                    buildMenu();
+                    blockEvents = false;
+                }
+
+                if (calculationSetup.getStoppingPowerCalculationMode() == StoppingCalculationMode.TABULATED &&
+                    !checkStoppingTables("Switched to Ziegler Biersack, load the tables and select tabulated stopping again.")) {
+                    calculationSetup.setStoppingPowerCalculationMode(StoppingCalculationMode.ZB);
+                    blockEvents = true;
+                    buildMenu();
+                    blockEvents = false;
+                }
 
                 spectraPlotWindow.setLocation(new Point((int) df.windowPositions.spectrumWindow.x, (int) df.windowPositions.spectrumWindow.y));
                 spectraPlotWindow.setSize(new Dimension((int) df.windowPositions.spectrumWindow.width, (int) df.windowPositions.spectrumWindow.height));
@@ -1227,6 +1253,59 @@ public class MainWindow extends JFrame implements Observer {
         gaEngineWorker.execute();
     }
 
+    private void loadStoppingTables() {
+
+        final JFileChooser fc;
+        if (lastFolder != null) fc = new JFileChooser(lastFolder);
+        else fc = new JFileChooser();
+        fc.setMultiSelectionEnabled(true);
+        int returnVal = fc.showOpenDialog(this);
+
+        if (returnVal == JFileChooser.APPROVE_OPTION) {
+
+            File[] files = fc.getSelectedFiles();
+            if (files.length == 0) return;
+
+            lastFolder = files[0].getParent();
+            setLastFolder(lastFolder);
+
+            int numberOfTables = StoppingTableLibrary.getSharedInstance().load(files);
+            System.out.println(numberOfTables + " of " + files.length + " stopping tables loaded");
+            updateOpenPlotWindows();
+        }
+    }
+
+    //Compound tables referenced by target or foil layers which the library does not have for the projectile
+    private LinkedList<String> getMissingStoppingTables() {
+
+        LinkedList<String>   result  = new LinkedList<>();
+        StoppingTableLibrary library = StoppingTableLibrary.getSharedInstance();
+        int                  Z1      = experimentalSetup.getProjectile().getZ();
+
+        for (Target target : new Target[]{targetModel.getTarget(), foilModel.getTarget()}) {
+            for (Layer layer : target.getLayerList()) {
+                String name = layer.getStoppingTable();
+                if (name != null && library.getCompoundTable(Z1, name) == null && !result.contains(name)) result.add(name);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Shows an error and returns false if a layer references a stopping table which is not loaded
+     */
+    private boolean checkStoppingTables(String action) {
+
+        LinkedList<String> missing = getMissingStoppingTables();
+        if (missing.isEmpty()) return true;
+
+        String message = "Stopping tables missing for Z1 = " + experimentalSetup.getProjectile().getZ() + ": " + String.join(", ", missing);
+        System.out.println(message);
+        JOptionPane.showMessageDialog(this, message + "\n" + action, "Stopping Tables", JOptionPane.ERROR_MESSAGE);
+        return false;
+    }
+
     private void doBatchGASimulation(File files[], FileType fileType) {
 
         if (files == null) {
@@ -1715,13 +1794,38 @@ public class MainWindow extends JFrame implements Observer {
         JMenu stopCalcMethod = new JMenu("Stopping Calculation");
         ButtonGroup stoppingMethods = new ButtonGroup();
         JRadioButtonMenuItem mrb_st_zb = new JRadioButtonMenuItem("Ziegler Biersack");
-        mrb_st_zb.setSelected(true);
+        mrb_st_zb.setSelected(calculationSetup.getStoppingPowerCalculationMode() == StoppingCalculationMode.ZB);
         mrb_st_zb.addActionListener(e -> {
             calculationSetup.setStoppingPowerCalculationMode(StoppingCalculationMode.ZB);
             updateOpenPlotWindows();
         });
         stoppingMethods.add(mrb_st_zb);
         stopCalcMethod.add(mrb_st_zb);
+        JRadioButtonMenuItem mrb_st_zb_table = new JRadioButtonMenuItem("Ziegler Biersack (tabulated)");
+        mrb_st_zb_table.setSelected(calculationSetup.getStoppingPowerCalculationMode() == StoppingCalculationMode.ZB_TABLE);
+        mrb_st_zb_table.addActionListener(e -> {
+            calculationSetup.setStoppingPowerCalculationMode(StoppingCalculationMode.ZB_TABLE);
+            updateOpenPlotWindows();
+        });
+        stoppingMethods.add(mrb_st_zb_table);
+        stopCalcMethod.add(mrb_st_zb_table);
+        JRadioButtonMenuItem mrb_st_user = new JRadioButtonMenuItem("Tabulated (user data)");
+        mrb_st_user.setSelected(calculationSetup.getStoppingPowerCalculationMode() == StoppingCalculationMode.TABULATED);
+        mrb_st_user.addActionListener(e -> {
+            if (checkStoppingTables("Load the tables before selecting tabulated stopping.")) {
+                calculationSetup.setStoppingPowerCalculationMode(StoppingCalculationMode.TABULATED);
+                updateOpenPlotWindows();
+            } else {
+                mrb_st_zb.setSelected(calculationSetup.getStoppingPowerCalculationMode() == StoppingCalculationMode.ZB);
+                mrb_st_zb_table.setSelected(calculationSetup.getStoppingPowerCalculationMode() == StoppingCalculationMode.ZB_TABLE);
+            }
+        });
+        stoppingMethods.add(mrb_st_user);
+        stopCalcMethod.add(mrb_st_user);
+        stopCalcMethod.add(new JSeparator());
+        JMenuItem itemLoadStoppingTables = new JMenuItem("Load Stopping Tables");
+        itemLoadStoppingTables.addActionListener(e -> loadStoppingTables());
+        stopCalcMethod.add(itemLoadStoppingTables);
         calcMenu.add(stopCalcMethod);
 
         JMenu compCorrMethod = new JMenu("Compound Correction");
@@ -1819,6 +1923,26 @@ public class MainWindow extends JFrame implements Observer {
         cfModels.add(mrb_cf_lin);
         calcMenu.add(cfModel);
 
+        JMenu convolutionModel = new JMenu("Convolution");
+        ButtonGroup convolutionModels = new ButtonGroup();
+        JRadioButtonMenuItem mrb_conv_direct = new JRadioButtonMenuItem("Direct");
+        JRadioButtonMenuItem mrb_conv_fast = new JRadioButtonMenuItem("Grouped Kernel / FFT");
+        mrb_conv_direct.addActionListener(e -> {
+            calculationSetup.setConvolutionMode(ConvolutionMode.DIRECT);
+            updateOpenPlotWindows();
+        });
+        mrb_conv_fast.addActionListener(e -> {
+            calculationSetup.setConvolutionMode(ConvolutionMode.FAST);
+            updateOpenPlotWindows();
+        });
+        mrb_conv_direct.setSelected(calculationSetup.getConvolutionMode() == ConvolutionMode.DIRECT);
+        mrb_conv_fast.setSelected(calculationSetup.getConvolutionMode() == ConvolutionMode.FAST);
+        convolutionModel.add(mrb_conv_direct);
+        convolutionModels.add(mrb_conv_direct);
+        convolutionModel.add(mrb_conv_fast);
+        convolutionModels.add(mrb_conv_fast);
+        calcMenu.add(convolutionModel);
+
         calcMenu.add(new JSeparator());
 
         JCheckBoxMenuItem jcbSimIso = new JCheckBoxMenuItem("Simulate Isotopes");
@@ -1830,6 +1954,32 @@ public class MainWindow extends JFrame implements Observer {
         });
         calcMenu.add(jcbSimIso);
 
+        JCheckBoxMenuItem jcbParIso = new JCheckBoxMenuItem("Simulate Isotopes in Parallel");
+        jcbParIso.addActionListener(e -> {
+            if (!blockEvents) {
+                calculationSetup.setParallelIsotopes(jcbParIso.isSelected());
+                updateOpenPlotWindows();
+            }
+        });
+        calcMenu.add(jcbParIso);
+
+        JCheckBoxMenuItem jcbFitWindowOnly = new JCheckBoxMenuItem("Fit: Simulate Fit Window Only");
+        jcbFitWindowOnly.addActionListener(e -> {
+            if (!blockEvents) {
+                calculationSetup.setSimulateFitWindowOnly(jcbFitWindowOnly.isSelected());
+            }
+        });
+        calcMenu.add(jcbFitWindowOnly);
+
+        JCheckBoxMenuItem jcbSimFoil = new JCheckBoxMenuItem("Include Foil");
+        jcbSimFoil.addActionListener(e -> {
+            if (!blockEvents) {
+                calculationSetup.setSimulateFoil(jcbSimFoil.isSelected());
+                updateOpenPlotWindows();
+            }
+        });
+        calcMenu.add(jcbSimFoil);
+
         jmb.add(calcMenu);
 
         JMenu targetMenu = new JMenu("Target");
@@ -1938,6 +2088,14 @@ public class MainWindow extends JFrame implements Observer {
         itemMakeGAConstrains.addActionListener(e -> makeGACsFromCurrentSetting());
         gaMenu.add(itemMakeGAConstrains);
 
+        JCheckBoxMenuItem jcbSolveCharge = new JCheckBoxMenuItem("Solve Charge Analytically");
+        jcbSolveCharge.addActionListener(e -> {
+            if (!blockEvents) {
+                deParameter.solveCharge = jcbSolveCharge.isSelected();
+            }
+        });
+        gaMenu.add(jcbSolveCharge);
+
         gaMenu.add(new JSeparator());
 
         JMenuItem itemShowEAStatus = new JMenuItem("Show status");
@@ -1984,6 +2142,10 @@ public class MainWindow extends JFrame implements Observer {
         jcbPlotLayers.setSelected(calculationSetup.isShowLayers());
         jcbUseLookUpTable.setSelected(calculationSetup.isUseLookUpTable());
         jcbSimIso.setSelected(calculationSetup.isSimulateIsotopes());
+        jcbParIso.setSelected(calculationSetup.isParallelIsotopes());
+        jcbFitWindowOnly.setSelected(calculationSetup.isSimulateFitWindowOnly());
+        jcbSimFoil.setSelected(calculationSetup.isSimulateFoil());
+        jcbSolveCharge.setSelected(deParameter.solveCharge);
     }
 
 
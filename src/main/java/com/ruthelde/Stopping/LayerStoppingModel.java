@@ -0,0 +1,128 @@
+package com.ruthelde.Stopping;
+
+import com.ruthelde.Target.Element;
+import com.ruthelde.Target.Isotope;
+import com.ruthelde.Target.Layer;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Bragg rule weights of one layer in flat arrays, so the stopping of a compound is evaluated without walking the
+ * element and isotope lists. Elements with the same atomic number share one entry, as the electronic stopping only
+ * depends on Z2. The model keeps the composition it was compiled from, matches() tells whether the layer (or one of
+ * its elements) was changed since.
+ */
+final class LayerStoppingModel {
+
+    final int      numberOfElements ;
+    final int[]    Z                ; //[element]
+    final int      numberOfIsotopes ;
+    final int[]    element          ; //[isotope] index of the isotope's element
+    final double[] mass             ; //[isotope]
+    final double[] weight           ; //[isotope] atomic fraction of the isotope in the layer
+    final String   stoppingTable    ; //Name of the layer's compound table, null if there is none
+
+    //Compound table resolved by StoppingCalculator for projectile Z1 and a version of the table library
+    StoppingTable compoundTable             ;
+    int           compoundTableZ1           ;
+    int           compoundTableVersion = -1 ;
+
+    //Composition the model was compiled from, in list order
+    private final int[]    layerZ       ;
+    private final double[] layerRatio   ;
+    private final int[]    isotopeCount ;
+    private final double[] abundance    ;
+
+    private LayerStoppingModel(Layer layer) {
+
+        int numberOfLayerElements = layer.getElementList().size();
+        int numberOfLayerIsotopes = 0;
+        for (Element e : layer.getElementList()) numberOfLayerIsotopes += e.getIsotopeList().size();
+
+        layerZ       = new int[numberOfLayerElements]    ;
+        layerRatio   = new double[numberOfLayerElements] ;
+        isotopeCount = new int[numberOfLayerElements]    ;
+        abundance    = new double[numberOfLayerIsotopes] ;
+
+        int[] uniqueZ = new int[numberOfLayerElements];
+        int   u       = 0;
+
+        element = new int[numberOfLayerIsotopes]    ;
+        mass    = new double[numberOfLayerIsotopes] ;
+        weight  = new double[numberOfLayerIsotopes] ;
+
+        double sumOfAllAtomicRatios = 0.0d;
+        for (Element e : layer.getElementList()) {
+            sumOfAllAtomicRatios += e.getRatio();
+        }
+
+        int i = 0, k = 0;
+
+        for (Element e : layer.getElementList()) {
+
+            int Z2 = e.getAtomicNumber();
+
+            layerZ[i]       = Z2                        ;
+            layerRatio[i]   = e.getRatio()              ;
+            isotopeCount[i] = e.getIsotopeList().size() ;
+            i++;
+
+            int index = 0;
+            while (index < u && uniqueZ[index] != Z2) index++;
+            if (index == u) uniqueZ[u++] = Z2;
+
+            //Same weights as the list based Bragg sum in StoppingCalculator
+            double elementContribution = e.getRatio() / sumOfAllAtomicRatios;
+            double sumOfAllIsotopeRatios = 0.0d;
+
+            for (Isotope isotope : e.getIsotopeList()) {
+                sumOfAllIsotopeRatios += isotope.getAbundance();
+            }
+
+            for (Isotope isotope : e.getIsotopeList()) {
+
+                double isotopeContribution = isotope.getAbundance() / sumOfAllIsotopeRatios;
+
+                abundance[k] = isotope.getAbundance()                    ;
+                element[k]   = index                                     ;
+                mass[k]      = isotope.getMass()                         ;
+                weight[k]    = elementContribution * isotopeContribution ;
+                k++;
+            }
+        }
+
+        this.numberOfElements = u                         ;
+        this.Z                = Arrays.copyOf(uniqueZ, u) ;
+        this.numberOfIsotopes = numberOfLayerIsotopes     ;
+        this.stoppingTable    = layer.getStoppingTable()  ;
+    }
+
+    static LayerStoppingModel compile(Layer layer) {
+        return new LayerStoppingModel(layer);
+    }
+
+    /**
+     * True if the layer still has the composition and stopping table the model was compiled from
+     */
+    boolean matches(Layer layer) {
+
+        if (layer.getElementList().size() != layerZ.length) return false;
+        if (!Objects.equals(layer.getStoppingTable(), stoppingTable)) return false;
+
+        int i = 0, k = 0;
+
+        for (Element e : layer.getElementList()) {
+
+            if (e.getAtomicNumber() != layerZ[i] || e.getRatio() != layerRatio[i]) return false;
+            if (e.getIsotopeList().size() != isotopeCount[i]) return false;
+            i++;
+
+            for (Isotope isotope : e.getIsotopeList()) {
+                if (isotope.getMass() != mass[k] || isotope.getAbundance() != abundance[k]) return false;
+                k++;
+            }
+        }
+
+        return true;
+    }
+}
@@ -3,7 +3,9 @@ package com.ruthelde.Stopping;
 
 public enum StoppingCalculationMode {
 
-    ZB("Ziegler-Biersack");
+    ZB("Ziegler-Biersack"),
+    ZB_TABLE("Ziegler-Biersack (tabulated)"),
+    TABULATED("Tabulated (user data)");
 
     private final String displayed_text;
 
@@ -1,20 +1,46 @@
 package com.ruthelde.Stopping;
 
-import com.ruthelde.Target.Element;
-import com.ruthelde.Target.Isotope;
 import com.ruthelde.Target.Layer;
 import com.ruthelde.Target.Projectile;
+import java.util.Arrays;
 
 final public class StoppingCalculator {
 
     private static final int MAX_ATOMIC_NUMBER = 92;
-    private double[][] stoppingCoefficients;
+
+    //Coefficient table shared by all calculators, it is never modified
+    private static final double[][] stoppingCoefficients = createCoefficients();
 
     private double[] correctionFactors;
 
+    //Kernels of the formulas (ZB), of the stopping database (ZB_TABLE) and of the user tables (TABULATED) by Z2
+    private final StoppingKernel[] kernels          = new StoppingKernel[MAX_ATOMIC_NUMBER + 1] ;
+    private final StoppingKernel[] tabulatedKernels = new StoppingKernel[MAX_ATOMIC_NUMBER + 1] ;
+    private final StoppingKernel[] userKernels      = new StoppingKernel[MAX_ATOMIC_NUMBER + 1] ;
+    private StoppingTableLibrary   library                                                     ;
+    private int                    libraryVersion                                              ;
+
+    //Compiled models of the last layers and the electronic stopping of their elements
+    private static final int           MODEL_CACHE_SIZE = 8                                        ;
+    private final Layer[]              modelLayers      = new Layer[MODEL_CACHE_SIZE]              ;
+    private final LayerStoppingModel[] models           = new LayerStoppingModel[MODEL_CACHE_SIZE] ;
+    private int                        nextModel                                                   ;
+    private double[]                   elementStopping  = new double[0]                            ;
+
     public StoppingCalculator() {
 
-        stoppingCoefficients = new double[94][55];
+        correctionFactors = new double[MAX_ATOMIC_NUMBER];
+
+        for (int i=0; i<MAX_ATOMIC_NUMBER; i++) correctionFactors[i] = 1.0d;
+    }
+
+    static double[][] getCoefficients() {
+        return stoppingCoefficients;
+    }
+
+    private static double[][] createCoefficients() {
+
+        double[][] stoppingCoefficients = new double[94][55];
 
         for (int i=0; i<55; i++) {
             stoppingCoefficients[0 ][i] = 0.0d;
@@ -31,9 +57,7 @@ final public class StoppingCalculator {
             System.arraycopy(DataTable.SCOEF, i * 54, stoppingCoefficients[i + 1], 1, 54);
         }
 
-        correctionFactors = new double[MAX_ATOMIC_NUMBER];
-
-        for (int i=0; i<MAX_ATOMIC_NUMBER; i++) correctionFactors[i] = 1.0d;
+        return stoppingCoefficients;
     }
 
     public void setCorrectionFactors(double[] correctionFactors){
@@ -62,11 +86,14 @@ final public class StoppingCalculator {
         double Sn = 0;
         double S  = 0;
 
-        if (Z1 >= 0 && Z1 <= MAX_ATOMIC_NUMBER && Z2>=0 && Z2 <= MAX_ATOMIC_NUMBER && M1>0 && M2>0) {
+        if (isValid(Z1, M1, Z2, M2)) {
             switch (mode) {
                 case ZB:
-                    Se = calcElectronicStoppingZB(Z1, M1, Z2, E0);
-                    Sn = calcNuclearStoppingZB(Z1, M1, Z2, M2, E0);
+                case ZB_TABLE:
+                case TABULATED:
+                    StoppingKernel kernel = getKernel(mode, Z1, M1, Z2);
+                    Se = kernel.getElectronicStopping(E0);
+                    Sn = kernel.getNuclearStopping(M2, E0);
                     S  = Se + Sn;
                     break;
             }
@@ -96,327 +123,313 @@ final public class StoppingCalculator {
     public double getStoppingPower(Projectile projectile, Layer layer, StoppingCalculationMode calcMode,
                                    CompoundCalculationMode compMode, int index) {
         double result = 0.0d;
-        double sumOfAllAtomicRatios = 0.0d;
-        double sumOfAllIsotopeRatios;
-        double elementContribution, isotopeContribution;
-        int Z2;
-        double M2;
+
+        int    Z1 = projectile.getZ();
+        double M1 = projectile.getM();
+        double E0 = projectile.getE();
 
         switch (compMode) {
 
             case BRAGG:
-                for (Element element : layer.getElementList()) {
-                    sumOfAllAtomicRatios += element.getRatio();
-                }
+                LayerStoppingModel model = getLayerModel(layer);
+                StoppingTable      table = getCompoundTable(calcMode, model, Z1);
 
-                for (Element element : layer.getElementList()) {
-                    elementContribution = element.getRatio() / sumOfAllAtomicRatios;
-                    sumOfAllIsotopeRatios = 0.0d;
+                //Compound table of the layer, a single interpolation within its range
+                if (table != null) {
 
-                    for (Isotope isotope : element.getIsotopeList()) {
-                        sumOfAllIsotopeRatios += isotope.getAbundance();
-                    }
+                    double  EM      = E0 / M1                                                     ;
+                    boolean nuclear = table.hasNuclearStopping(M1)                                ;
+                    double  Se      = index != 1 ? table.getElectronicStopping(EM) : 0.0d         ;
+                    double  Sn      = index != 0 && nuclear ? table.getNuclearStopping(EM) : 0.0d ;
 
-                    for (Isotope isotope : element.getIsotopeList()) {
-                        isotopeContribution = isotope.getAbundance() / sumOfAllIsotopeRatios;
-                        Z2 = element.getAtomicNumber();
-                        M2 = isotope.getMass();
-                        result += elementContribution * isotopeContribution * getStoppingPower(projectile, Z2, M2, calcMode, index);
+                    if (!Double.isNaN(Se + Sn)) {
+                        result = (Se + Sn) * getCompoundCorrection(model);
+                        if (index != 0 && !nuclear) result += getBraggStoppingPower(Z1, M1, E0, model, calcMode, 1);
+                        break;
                     }
                 }
+
+                result = getBraggStoppingPower(Z1, M1, E0, model, calcMode, index);
                 break;
         }
         return result;
     }
 
     /**
-     * Get the electronic stopping power value for one element
-     * Formalism by Ziegler-Biersack
-     * All stopping power values in eV/(10^5 atoms/cm^2)
-     * Energy input in keV
-     *
+     * Same as above for a projectile (Z1, M1) at all given energies [keV], the results are written to result. The
+     * compound weights are evaluated once per call, the electronic stopping (which does not depend on the isotope's
+     * mass) once per element.
      */
-    private double calcElectronicStoppingZB(int Z1, double M1, int Z2, double E0) {
+    public void getStoppingPowers(int Z1, double M1, Layer layer, StoppingCalculationMode calcMode,
+                                  CompoundCalculationMode compMode, int index, double[] energies, double[] result) {
 
-        double result = 0;
+        int n = energies.length;
 
-        //For Protons, Deuterons and Tritons
-        if (Z1 == 1) {
-            result = calcElectronicStoppingHZB(Z2, E0 / M1);
-        }
+        switch (compMode) {
 
-        //For Helium
-        if (Z1 == 2) {
-            result = calcElectronicStoppingHeZB(M1, Z2, E0);
-        }
+            case BRAGG:
+                LayerStoppingModel model = getLayerModel(layer);
+                StoppingTable      table = getCompoundTable(calcMode, model, Z1);
 
-        //For heavy ions
-        if (Z1 > 2) {
-            result = calcElectronicStoppingHeavyZB(Z1, M1, Z2, E0);
-        }
+                if (table == null) {
+                    getBraggStoppingPowers(Z1, M1, model, calcMode, index, energies, result);
+                    break;
+                }
 
-        return result;
-    }
+                //Compound table of the layer, energies out of its range are marked (NaN) and taken from the Bragg sum
+                double  correction = getCompoundCorrection(model) ;
+                boolean nuclear    = table.hasNuclearStopping(M1) ;
+                boolean complete   = true                         ;
+
+                for (int i=0; i<n; i++) {
+                    double EM = energies[i] / M1;
+                    double Se = index != 1 ? table.getElectronicStopping(EM) : 0.0d;
+                    double Sn = index != 0 && nuclear ? table.getNuclearStopping(EM) : 0.0d;
+                    result[i] = (Se + Sn) * correction;
+                    if (Double.isNaN(result[i])) complete = false;
+                }
 
-    /**
-     * Get the nuclear stopping power value for one element
-     * Formalism by Ziegler-Biersack
-     * All stopping power values in eV/(10^5 atoms/cm^2)
-     * Energy input in keV
-     */
-    private double calcNuclearStoppingZB(int Z1, double M1, int Z2, double M2, double E0) {
+                if (complete && (index == 0 || nuclear)) break;
 
-        double result = 0.0d;
+                double[] bragg = new double[n];
 
-        //For Protons, Deuterons and Tritons
-        if (Z1 == 1) {
-            result = 0.0d;
-        }
+                if (index != 0 && !nuclear) {
+                    getBraggStoppingPowers(Z1, M1, model, calcMode, 1, energies, bragg);
+                    for (int i=0; i<n; i++) result[i] += bragg[i];
+                }
 
-        //For heavy ions
-        if (Z1 > 1) {
-            result = calcNuclearStoppingHeavyZB(Z1, M1, Z2, M2, E0);
-        }
+                if (!complete) {
+                    getBraggStoppingPowers(Z1, M1, model, calcMode, index, energies, bragg);
+                    for (int i=0; i<n; i++) if (Double.isNaN(result[i])) result[i] = bragg[i];
+                }
+                break;
 
-        return result;
+            default:
+                Arrays.fill(result, 0, n, 0.0d);
+                break;
+        }
     }
 
-    /**
-     * Get electronic stopping for H/D/T by Ziegler/Biersack
-     * EM = E0 / M1 = E0 (M1=1)
-     */
-    private double calcElectronicStoppingHZB(int Z2, double EM) {
-
+    //Bragg sum of the element (or element table) stopping
+    private double getBraggStoppingPower(int Z1, double M1, double E0, LayerStoppingModel model,
+                                         StoppingCalculationMode calcMode, int index) {
         double result = 0.0d;
 
-        double C1   = stoppingCoefficients[Z2][ 9];
-        double C2   = stoppingCoefficients[Z2][10];
-        double C3   = stoppingCoefficients[Z2][11];
-        double C4   = stoppingCoefficients[Z2][12];
-        double C5   = stoppingCoefficients[Z2][13];
-        double C6   = stoppingCoefficients[Z2][14];
-        double C7   = stoppingCoefficients[Z2][15];
-        double C8   = stoppingCoefficients[Z2][16];
-        double C9   = stoppingCoefficients[Z2][17];
-        double C10  = stoppingCoefficients[Z2][18];
-        double C11  = stoppingCoefficients[Z2][19];
-        double C12  = stoppingCoefficients[Z2][20];
-
-        if (EM >= 10.0d && EM < 10000.0d) {
-            double S_Low  = C1*Math.pow(EM,C2) + C3*Math.pow(EM,C4);
-            double S_High = C5/(Math.pow(EM,C6))*Math.log(C7/EM + C8*EM);
-            result = S_Low * S_High / (S_Low + S_High);
+        if (elementStopping.length < model.numberOfElements) {
+            elementStopping = new double[model.numberOfElements];
         }
 
-        if (EM >= 10000.0d) {
-            double x = Math.log(EM)/EM;
-            result = C9 + C10*x + C11*x*x + C12/x;
+        //Electronic stopping once per element
+        for (int u=0; u<model.numberOfElements; u++) {
+            int Z2 = model.Z[u];
+            elementStopping[u] = 0.0d;
+            if (index != 1 && isValid(Z1, M1, Z2, 1.0d)) {
+                switch (calcMode) {
+                    case ZB:
+                    case ZB_TABLE:
+                    case TABULATED:
+                        elementStopping[u] = getKernel(calcMode, Z1, M1, Z2).getElectronicStopping(E0);
+                        break;
+                }
+            }
         }
 
-        if (EM < 10.0d) {
-            double y;
+        for (int k=0; k<model.numberOfIsotopes; k++) {
+
+            int    Z2 = model.Z[model.element[k]] ;
+            double M2 = model.mass[k]             ;
+            double Se = 0.0d, Sn = 0.0d           ;
 
-            if (Z2 > 6){
-                y = 0.45d;
-            } else {
-                y = 0.35d;
+            if (isValid(Z1, M1, Z2, M2)) {
+                switch (calcMode) {
+                    case ZB:
+                    case ZB_TABLE:
+                    case TABULATED:
+                        Se = elementStopping[model.element[k]];
+                        if (index != 0) Sn = getKernel(calcMode, Z1, M1, Z2).getNuclearStopping(M2, E0);
+                        break;
+                }
             }
 
-            double S_Low_10  = C1*Math.pow(10,C2) + C3*Math.pow(10,C4);
-            double S_High_10 = C5/(Math.pow(10,C6))*Math.log(C7/10 + C8*10);
-            double S_elec_10 = S_Low_10 * S_High_10 / (S_Low_10 + S_High_10);
+            double S = 0.0d;
+            switch (index) {
+                case 0:
+                    S = Se;
+                    break;
+                case 1:
+                    S = Sn;
+                    break;
+                case 2:
+                    S = Se + Sn;
+                    break;
+            }
 
-            result = S_elec_10 * Math.pow(EM/10,y);
+            result += model.weight[k] * (S * correctionFactors[Z2-1]);
         }
 
         return result;
     }
 
-    /**
-     * Get electronic stopping for He by Ziegler/Biersack
-     */
-    private double calcElectronicStoppingHeZB(double M1, int Z2, double E0) {
-
-        double C0   =  0.286500d;
-        double C1   =  0.126600d;
-        double C2   = -0.001429d;
-        double C3   =  0.024020d;
-        double C4   = -0.011350d;
-        double C5   =  0.001475d;
-
-        double EM = E0/M1;
-        double HE0 = 1.0d;
-        double HE = Math.max(HE0, EM);
-        double B = Math.log(HE);
-        double A = 0.0d;
-
-        A += C0*Math.pow(B,0.0d);
-        A += C1*Math.pow(B,1.0d);
-        A += C2*Math.pow(B,2.0d);
-        A += C3*Math.pow(B,3.0d);
-        A += C4*Math.pow(B,4.0d);
-        A += C5*Math.pow(B,5.0d);
-
-        if (A > 30) {
-            A = 30;
-        }
+    private void getBraggStoppingPowers(int Z1, double M1, LayerStoppingModel model, StoppingCalculationMode calcMode,
+                                        int index, double[] energies, double[] result) {
+
+        int n = energies.length;
+
+        Arrays.fill(result, 0, n, 0.0d);
 
-        double HEH = 1.0d - Math.exp(-A);
+        double[][] Se = new double[model.numberOfElements][n] ;
+        double[]   Sn = new double[n]                         ;
 
-        if (HE < 1) {
-            HE=1;
+        //Electronic stopping once per element
+        for (int u=0; u<model.numberOfElements; u++) {
+            int Z2 = model.Z[u];
+            if (index != 1 && isValid(Z1, M1, Z2, 1.0d)) {
+                switch (calcMode) {
+                    case ZB:
+                    case ZB_TABLE:
+                    case TABULATED:
+                        getKernel(calcMode, Z1, M1, Z2).getElectronicStopping(energies, Se[u]);
+                        break;
+                }
+            }
         }
 
-        A = (1.0d + (0.007d + 0.00005*Z2)*Math.exp(-Math.pow(7.6d - Math.log(HE),2)));
-        HEH = HEH * A * A;
+        for (int k=0; k<model.numberOfIsotopes; k++) {
+
+            int      Z2         = model.Z[model.element[k]]  ;
+            double   M2         = model.mass[k]              ;
+            double   weight     = model.weight[k]            ;
+            double   correction = correctionFactors[Z2-1]    ;
+            double[] S_e        = Se[model.element[k]]       ;
+
+            if (!isValid(Z1, M1, Z2, M2)) continue;
+
+            if (index != 0) {
+                switch (calcMode) {
+                    case ZB:
+                    case ZB_TABLE:
+                    case TABULATED:
+                        getKernel(calcMode, Z1, M1, Z2).getNuclearStopping(M2, energies, Sn);
+                        break;
+                }
+            }
+
+            switch (index) {
+                case 0:
+                    for (int i=0; i<n; i++) result[i] += weight * (S_e[i] * correction);
+                    break;
+                case 1:
+                    for (int i=0; i<n; i++) result[i] += weight * (Sn[i] * correction);
+                    break;
+                case 2:
+                    for (int i=0; i<n; i++) result[i] += weight * ((S_e[i] + Sn[i]) * correction);
+                    break;
+            }
+        }
+    }
 
-        double S_p = calcElectronicStoppingHZB(Z2, E0 / M1);
-        double result = (S_p * HEH * 4.0d);
+    //Correction of a compound table, the correction factors of the layer's isotopes with their atomic fractions
+    private double getCompoundCorrection(LayerStoppingModel model) {
 
-        if (EM <= HE0) {
-            result = result * Math.sqrt(EM/HE0);
+        double result = 0.0d;
+        for (int k=0; k<model.numberOfIsotopes; k++) {
+            result += model.weight[k] * correctionFactors[model.Z[model.element[k]]-1];
         }
 
         return result;
     }
 
+    private static boolean isValid(int Z1, double M1, int Z2, double M2) {
+        return Z1 >= 0 && Z1 <= MAX_ATOMIC_NUMBER && Z2 >= 0 && Z2 <= MAX_ATOMIC_NUMBER && M1 > 0 && M2 > 0;
+    }
+
     /**
-     * Get electronic stopping for heavy projectiles by Ziegler/Biersack
+     * Compiled Bragg model of the layer. The models of the last few layers are kept and recompiled if the layer's
+     * composition was changed.
      */
-    private double calcElectronicStoppingHeavyZB(int Z1, double M1, int Z2, double E0) {
-
-        double EM = E0/M1;
-        double YRMIN = 0.13d;
-        double VRMIN = 1.00d;
-        double VFERMI1 = stoppingCoefficients[Z2][7];
-        double V = Math.sqrt(EM/25.0d) / VFERMI1;
-
-        double SE, SP, EEE, VMIN, LAMBDA0, LAMBDA1, A, YR, Q, L, ZETA0, ZETA;
-        double EION, HIPOWER, VFCORR0, VFCORR1, VR;
-        int index;
-
-        if (V<1) {
-            VR = (0.75d * VFERMI1) * (1.0d + (0.667d*V*V) - V*V*V*V/15.0d);
-        } else {
-            VR = V * VFERMI1 * (1.0d + 1.0d/(5.0d*V*V));
-        }
+    private LayerStoppingModel getLayerModel(Layer layer) {
 
-        YR = VR/Math.pow(Z1, 0.6667d);
-        if (YR < YRMIN) {YR = YRMIN;}
-        A = VRMIN / Math.pow(Z1, 0.6667d);
-        if (YR < A) {YR = A;}
-        A = -0.803d * Math.pow(YR,0.3d) + 1.3167d * Math.pow(YR,0.6d) + 0.38157d * YR + 0.008983d * YR * YR;
-        if (A>50) {A=50;}
-        Q = 1 - Math.exp(-A);
-        if (Q<0){Q=0;}
-        if (Q>1){Q=1;}
-
-        index = 0;
-
-        for (int i=22; i<40; i++) {
-            if (Q < stoppingCoefficients[93][i]){
-                index = i-1;
-                break;
+        for (int i=0; i<MODEL_CACHE_SIZE; i++) {
+            if (modelLayers[i] == layer) {
+                if (!models[i].matches(layer)) models[i] = LayerStoppingModel.compile(layer);
+                return models[i];
             }
         }
 
-        if (index<22) {index = 22;}
-        if (index>38) {index = 38;}
-        LAMBDA0 = stoppingCoefficients[Z1][index];
-        LAMBDA1 = (Q - stoppingCoefficients[93][index]) * (stoppingCoefficients[Z1][index+1] - stoppingCoefficients[Z1][index]) / (stoppingCoefficients[93][index+1] - stoppingCoefficients[93][index]);
-        L = (LAMBDA0 + LAMBDA1) / Math.pow((double)Z1, 0.33333d);
-
-        ZETA0 = Q + (1.0d / (2.0d * VFERMI1 * VFERMI1))*(1.0d - Q) * Math.log(1.0d + Math.pow(4.0d*L*VFERMI1/1.919d,2.0d));
-        A = Math.log(EM);
-        if (A<0.0d){A=0.0d;}
-        ZETA = ZETA0 * (1.0d + (1.0d / ((double)Z1*(double)Z1)) * (0.08d + 0.0015d*(double)Z2) * Math.exp(-Math.pow(7.6d-A,2.0d)));
-
-        A = VRMIN / Math.pow((double)Z1, 0.6667d);
-        if (A<YRMIN) {A=YRMIN;}
-
-        if (YR <= A) {
-
-            //Low velocity
-            A = YRMIN * Math.pow((double)Z1, 0.6667d); if (VRMIN < A) {VRMIN = A;}
-            A = VRMIN*VRMIN - 0.8d*VFERMI1*VFERMI1; if (A<0) {A=0;}
-            VMIN = 0.5d * (VRMIN + Math.sqrt(A));
-            EEE = 25 * VMIN * VMIN;
-            SP = calcElectronicStoppingHZB(Z2, EEE);
-             /*Add Fermi Velocity Correction to Low Energy value*/
-            if(EEE<=9999)EION=EEE;else EION=9999; /*Correction is only valid for E <1E4 keV/amu*/
-            index = 0;
-
-            for(int i=41;i<=53;i++) {
-                if (stoppingCoefficients[93][i]<EION) {
-                    index = i-1;
-                    break;
-                }
-            }
+        int i = nextModel;
+        nextModel = (nextModel + 1) % MODEL_CACHE_SIZE;
 
-            if(index<41){index=41;}else if(index>53){index=53;}
-            VFCORR0 = stoppingCoefficients[Z2][index];
-            VFCORR1 = (EION- stoppingCoefficients[93][index])*(stoppingCoefficients[Z2][index+1]- stoppingCoefficients[Z2][index])/(stoppingCoefficients[93][index+1]- stoppingCoefficients[93][index]);
-            if(Z1==3){HIPOWER = 0.55d;}
-            else if(Z2<7){HIPOWER = 0.375d;}
-            else if(Z1<18 && (Z2==14 || Z2==32)){HIPOWER = 0.375d;}
-            else {HIPOWER = 0.47d;}
-            SE=SP*Math.pow(ZETA*(double)Z1,2.0d)*(VFCORR0+VFCORR1)*Math.pow((EM/EEE),HIPOWER);
-
-        } else {
-
-            //Not Low velocity
-            SP= calcElectronicStoppingHZB(Z2, EM);
-            if(EM<=9999){EION=EM;}else {EION=9999;}
-            index = 0;
-
-            for(int i=41; i<=53; i++) {
-                if (stoppingCoefficients[93][i]<EION) {
-                    index = i-1;
-                    break;
-                }
-            }
+        modelLayers[i] = layer                            ;
+        models[i]      = LayerStoppingModel.compile(layer) ;
+
+        return models[i];
+    }
+
+    /**
+     * Compound table the layer references for projectile Z1 in the TABULATED mode, null if there is none. The table
+     * is resolved once per model and library version.
+     */
+    private StoppingTable getCompoundTable(StoppingCalculationMode mode, LayerStoppingModel model, int Z1) {
+
+        if (mode != StoppingCalculationMode.TABULATED || model.stoppingTable == null) return null;
+
+        StoppingTableLibrary library = getLibrary();
+        int                  version = library.getVersion();
 
-            if(index<41){index=41;}else if(index>53){index=53;}
-            VFCORR0= stoppingCoefficients[Z2][index];
-            VFCORR1=(EION- stoppingCoefficients[93][index])*(stoppingCoefficients[Z2][index+1]- stoppingCoefficients[Z2][index])/(stoppingCoefficients[93][index+1]- stoppingCoefficients[93][index]);
-            SE=SP*Math.pow(ZETA*(double)Z1,2.0d)*(VFCORR0+VFCORR1);
+        if (model.compoundTableVersion != version || model.compoundTableZ1 != Z1) {
+            model.compoundTable        = library.getCompoundTable(Z1, model.stoppingTable) ;
+            model.compoundTableZ1      = Z1                                                ;
+            model.compoundTableVersion = version                                           ;
         }
 
-        return SE;
+        return model.compoundTable;
+    }
+
+    private StoppingTableLibrary getLibrary() {
+
+        if (library == null) library = StoppingTableLibrary.getSharedInstance();
+        return library;
     }
 
     /**
-     * Get nuclear stopping for heavy elements by Ziegler/Biersack
+     * Kernel of the projectile (Z1, M1) in element Z2. One kernel per element and mode is kept, it is recompiled if
+     * the projectile changes. The tabulated mode falls back to the formulas if the stopping database is not available,
+     * the user table mode outside of the tables and for pairs without a table.
      */
-    private double calcNuclearStoppingHeavyZB(int Z1, double M1, int Z2, double M2, double E0) {
-
-        double K1 = 32.53f * M2 * E0;
-        double K2 = Z1*Z2*(M1+M2);
-        double K3 = Math.pow(Z1,0.23f) + Math.pow(Z2,0.23f);
-
-        double eps = K1/(K2*K3);
-        double sn;
-
-        if (eps <= 30) {
-            double A1 = Math.log(1 + 1.1383f * eps);
-            double A2 = 1*eps;
-            double A3 = 0.01321f*Math.pow(eps,0.21226f);
-            double A4 = 0.19593f*Math.pow(eps,0.50000f);
-            sn = A1 / (2.0f*(A2+A3+A4));
-        } else {
-            sn = Math.log(eps) / (2*eps);
+    private StoppingKernel getKernel(StoppingCalculationMode mode, int Z1, double M1, int Z2) {
+
+        if (mode == StoppingCalculationMode.TABULATED) return getUserKernel(Z1, M1, Z2);
+
+        boolean          tabulated = mode == StoppingCalculationMode.ZB_TABLE  ;
+        StoppingKernel[] cache     = tabulated ? tabulatedKernels : kernels    ;
+        StoppingKernel   kernel    = cache[Z2]                                 ;
+
+        if (kernel == null || kernel.Z1 != Z1 || kernel.M1 != M1) {
+            StoppingDatabase database = tabulated ? StoppingDatabase.getSharedInstance() : null;
+            kernel = StoppingKernel.compile(stoppingCoefficients, Z1, M1, Z2, database);
+            cache[Z2] = kernel;
         }
 
-        double B1 = 8.462f * Z1 * Z2 * M1;
-        double B2 = M1 + M2;
-        double B3 = Math.pow(Z1,0.23f) + Math.pow(Z2,0.23f);
+        return kernel;
+    }
+
+    private StoppingKernel getUserKernel(int Z1, double M1, int Z2) {
+
+        StoppingTableLibrary library = getLibrary();
 
-        double S_nucl = sn * B1 / (B2*B3);
+        //Tables were loaded or replaced
+        if (library.getVersion() != libraryVersion) {
+            Arrays.fill(userKernels, null);
+            libraryVersion = library.getVersion();
+        }
+
+        StoppingKernel kernel = userKernels[Z2];
 
-        if (E0>0) {
-            return S_nucl;
-        } else {
-            return 0.0d;
+        if (kernel == null || kernel.Z1 != Z1 || kernel.M1 != M1) {
+            kernel = StoppingKernel.compile(stoppingCoefficients, Z1, M1, Z2, library.getElementTable(Z1, Z2));
+            userKernels[Z2] = kernel;
         }
+
+        return kernel;
     }
 }
@@ -0,0 +1,281 @@
+package com.ruthelde.Stopping;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Precomputed Ziegler-Biersack stopping in a binary file which is memory mapped read only, so all JVMs of a user
+ * share one copy in the page cache. The electronic stopping only depends on E/M1, it is tabulated for Z1 = 1, 2, 3,
+ * 6, 7, 8 (H, D, He-3, He-4, Li, C, N, O and their other isotopes) in all elements Z2 = 1..92 on a uniform
+ * logarithmic grid of E/M1. The nuclear stopping is stored in reduced units, sn(eps) is the same function for all
+ * pairs and is scaled per isotope by the kernel. Values are linearly interpolated between the nodes. The ZB fits
+ * have a few steps (e.g. at E/M1 = 10 MeV/amu for H), intervals which the interpolation does not reproduce within
+ * MAX_REL_ERROR are therefore marked (NaN) and left to the formulas.
+ *
+ * The file is generated on first use if it does not exist, see getSharedInstance(). Its header holds the SHA-256 of
+ * the data, a file is only used if the checksum of the mapped data matches.
+ */
+public final class StoppingDatabase {
+
+    public static final String FILE_PROPERTY = "ruthelde.stoppingDatabase";
+
+    private static final int    MAGIC            = 0x52535444         ;
+    private static final int    VERSION          = 2                  ;
+    private static final int[]  PROJECTILES      = {1, 2, 3, 6, 7, 8} ;
+    private static final int    NUMBER_OF_Z2     = 92                 ;
+    private static final int    NODES_PER_DECADE = 256                ;
+    private static final double EM_MIN           = 1.0E-2             ; //keV/amu
+    private static final int    EM_DECADES       = 7                  ;
+    private static final double EPS_MIN          = 1.0E-8             ;
+    private static final int    EPS_DECADES      = 16                 ;
+    private static final int    HEADER_SIZE      = 96                 ; //Bytes, a multiple of 8
+    private static final int    CHECKSUM_OFFSET  = 40                 ; //Bytes, SHA-256 of the data in the header
+    private static final int    CHECKSUM_LENGTH  = 32                 ;
+    private static final double MAX_REL_ERROR    = 1.0E-4             ;
+    private static final int    CHECKS_PER_NODE  = 4                  ; //Points per interval checked on generation
+
+    private static final int    NUMBER_OF_ENERGIES = EM_DECADES * NODES_PER_DECADE + 1  ;
+    private static final int    NUMBER_OF_EPS      = EPS_DECADES * NODES_PER_DECADE + 1 ;
+    private static final double NODES_PER_LOG      = NODES_PER_DECADE / Math.log(10.0d)  ;
+    private static final double LOG_EM_MIN         = Math.log(EM_MIN)                    ;
+    private static final double LOG_EPS_MIN        = Math.log(EPS_MIN)                   ;
+
+    private static StoppingDatabase sharedInstance ;
+    private static boolean          loaded         ;
+
+    private final DoubleBuffer data          ;
+    private final int          nuclearOffset ;
+
+    private StoppingDatabase(MappedByteBuffer buffer) {
+
+        buffer.position(HEADER_SIZE);
+        this.data          = buffer.slice().order(ByteOrder.nativeOrder()).asDoubleBuffer()        ;
+        this.nuclearOffset = PROJECTILES.length * NUMBER_OF_Z2 * getRowLength(NUMBER_OF_ENERGIES) ;
+    }
+
+    /**
+     * Database of the file given by the system property ruthelde.stoppingDatabase, by default stopping-2.bin in the
+     * directory .ruthelde of the user's home. The file is generated (once per user) if it is missing, outdated or
+     * corrupt. Returns null if the file can neither be read nor written.
+     */
+    public static synchronized StoppingDatabase getSharedInstance() {
+
+        if (!loaded) {
+
+            loaded = true;
+
+            String fileName = System.getProperty(FILE_PROPERTY);
+            Path   path     = fileName != null ? Paths.get(fileName)
+                    : Paths.get(System.getProperty("user.home"), ".ruthelde", "stopping-" + VERSION + ".bin");
+
+            try {
+                sharedInstance = open(path);
+            } catch (IOException e) {
+                System.out.println("Stopping database not available: " + e.getMessage());
+            }
+        }
+
+        return sharedInstance;
+    }
+
+    /**
+     * Maps the database file, it is (re)generated first if it is missing, was written by another version or its data
+     * does not match the checksum.
+     */
+    public static StoppingDatabase open(Path path) throws IOException {
+
+        MappedByteBuffer buffer = map(path);
+
+        if (buffer == null) {
+            generate(path);
+            buffer = map(path);
+            if (buffer == null) throw new IOException(path + " is not valid after generation");
+        }
+
+        return new StoppingDatabase(buffer);
+    }
+
+    /**
+     * Writes the database file. It is written to a temporary file first and then moved, so concurrent readers never
+     * see a partial file.
+     */
+    public static void generate(Path path) throws IOException {
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) getFileSize()).order(ByteOrder.nativeOrder());
+
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(NODES_PER_DECADE).putInt(PROJECTILES.length);
+        buffer.putInt(NUMBER_OF_ENERGIES).putInt(NUMBER_OF_EPS).putDouble(EM_MIN).putDouble(EPS_MIN);
+        buffer.position(HEADER_SIZE);
+
+        double[][] coefficients = StoppingCalculator.getCoefficients();
+
+        for (int Z1 : PROJECTILES) {
+            for (int Z2=1; Z2<=NUMBER_OF_Z2; Z2++) {
+
+                //With M1 = 1 the energy is E/M1
+                StoppingKernel kernel = StoppingKernel.compile(coefficients, Z1, 1.0d, Z2, (StoppingDatabase) null);
+                putRow(buffer, kernel::getElectronicStopping, LOG_EM_MIN, NUMBER_OF_ENERGIES);
+            }
+        }
+
+        putRow(buffer, StoppingKernel::getReducedNuclearStopping, LOG_EPS_MIN, NUMBER_OF_EPS);
+
+        buffer.flip();
+
+        byte[] checksum = getChecksum(buffer);
+        for (int i=0; i<CHECKSUM_LENGTH; i++) buffer.put(CHECKSUM_OFFSET + i, checksum[i]);
+
+        Path directory = path.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temporary = Files.createTempFile(directory, "ruthelde-stopping", ".tmp");
+
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) channel.write(buffer);
+            }
+
+            try {
+                Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Index of the electronic stopping row of projectile Z1 in element Z2, -1 if the pair is not tabulated
+     */
+    int getElectronicRow(int Z1, int Z2) {
+
+        if (Z2 < 1 || Z2 > NUMBER_OF_Z2) return -1;
+
+        for (int p=0; p<PROJECTILES.length; p++) {
+            if (PROJECTILES[p] == Z1) return (p * NUMBER_OF_Z2 + Z2 - 1) * getRowLength(NUMBER_OF_ENERGIES);
+        }
+
+        return -1;
+    }
+
+    /**
+     * Electronic stopping of the given row at EM = E/M1 [keV/amu], NaN if EM is out of the tabulated range or in a
+     * marked interval
+     */
+    double getElectronicStopping(int row, double EM) {
+        return interpolate(row, NUMBER_OF_ENERGIES, (Math.log(EM) - LOG_EM_MIN) * NODES_PER_LOG);
+    }
+
+    /**
+     * Reduced nuclear stopping sn(eps), NaN if eps is out of the tabulated range or in a marked interval
+     */
+    double getReducedNuclearStopping(double eps) {
+        return interpolate(nuclearOffset, NUMBER_OF_EPS, (Math.log(eps) - LOG_EPS_MIN) * NODES_PER_LOG);
+    }
+
+    //Rows hold both end values of each interval
+    private double interpolate(int offset, int numberOfNodes, double x) {
+
+        if (!(x >= 0.0d && x < numberOfNodes - 1)) return Double.NaN;
+
+        int    i  = (int) x                      ;
+        double y0 = data.get(offset + 2 * i)     ;
+        double y1 = data.get(offset + 2 * i + 1) ;
+
+        return y0 + (x - i) * (y1 - y0);
+    }
+
+    /**
+     * Writes the end values of all intervals of f on the logarithmic grid starting at exp(logMin). Intervals with a
+     * step of f are written as NaN.
+     */
+    private static void putRow(ByteBuffer buffer, DoubleUnaryOperator f, double logMin, int numberOfNodes) {
+
+        double[] y = new double[numberOfNodes];
+        for (int i=0; i<numberOfNodes; i++) y[i] = f.applyAsDouble(Math.exp(logMin + i / NODES_PER_LOG));
+
+        for (int i=0; i<numberOfNodes-1; i++) {
+
+            boolean valid = !Double.isNaN(y[i]) && !Double.isNaN(y[i+1]);
+
+            for (int j=1; j<CHECKS_PER_NODE && valid; j++) {
+                double t     = (double) j / CHECKS_PER_NODE;
+                double exact = f.applyAsDouble(Math.exp(logMin + (i + t) / NODES_PER_LOG));
+                valid = Math.abs(y[i] + t * (y[i+1] - y[i]) - exact) <= MAX_REL_ERROR * Math.abs(exact);
+            }
+
+            buffer.putDouble(valid ? y[i]   : Double.NaN);
+            buffer.putDouble(valid ? y[i+1] : Double.NaN);
+        }
+    }
+
+    private static int getRowLength(int numberOfNodes) {
+        return 2 * (numberOfNodes - 1);
+    }
+
+    private static long getFileSize() {
+        return HEADER_SIZE + 8L * (PROJECTILES.length * NUMBER_OF_Z2 * getRowLength(NUMBER_OF_ENERGIES)
+                + getRowLength(NUMBER_OF_EPS));
+    }
+
+    //Maps the file read only, null if it is missing or not valid
+    private static MappedByteBuffer map(Path path) throws IOException {
+
+        if (!Files.isRegularFile(path) || Files.size(path) != getFileSize()) return null;
+
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, getFileSize());
+        }
+
+        //The checksum is calculated from the mapped data, so the file may not be replaced in between
+        return isValid(buffer) ? buffer : null;
+    }
+
+    private static boolean isValid(MappedByteBuffer buffer) throws IOException {
+
+        if (buffer.capacity() != getFileSize()) return false;
+
+        ByteBuffer header = buffer.duplicate().order(ByteOrder.nativeOrder());
+
+        boolean valid = header.getInt() == MAGIC && header.getInt() == VERSION
+                && header.getInt() == NODES_PER_DECADE && header.getInt() == PROJECTILES.length
+                && header.getInt() == NUMBER_OF_ENERGIES && header.getInt() == NUMBER_OF_EPS
+                && header.getDouble() == EM_MIN && header.getDouble() == EPS_MIN;
+
+        if (!valid) return false;
+
+        byte[] checksum = getChecksum(buffer);
+        for (int i=0; i<CHECKSUM_LENGTH; i++) if (header.get(CHECKSUM_OFFSET + i) != checksum[i]) return false;
+
+        return true;
+    }
+
+    //SHA-256 of the data behind the header, the buffer's position is not changed
+    private static byte[] getChecksum(ByteBuffer buffer) throws IOException {
+
+        ByteBuffer data = buffer.duplicate();
+        data.position(HEADER_SIZE);
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(data);
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 not available", e);
+        }
+    }
+}
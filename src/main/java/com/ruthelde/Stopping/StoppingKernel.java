@@ -0,0 +1,363 @@
+package com.ruthelde.Stopping;
+
+/**
+ * Ziegler-Biersack stopping of one projectile (Z1, M1) in one element (Z2). All terms which do not depend on the
+ * energy (coefficient rows, powers of Z1 and Z2, Fermi velocity, the low velocity limit of heavy ions) are evaluated
+ * once by compile(). If a stopping database or a user supplied table is given, tabulated values are used within
+ * their range.
+ * Kernels are immutable and may be shared between threads.
+ * All stopping power values in eV/(10^15 atoms/cm^2)
+ * Energy input in keV
+ */
+final class StoppingKernel {
+
+    private static final double YRMIN = 0.13d ;
+    private static final double VRMIN = 1.00d ;
+    private static final double HE0   = 1.0d  ;
+
+    final int    Z1 ;
+    final double M1 ;
+    final int    Z2 ;
+
+    //Electronic stopping of H/D/T, also used for He and heavy ions
+    private final double C1, C2, C3, C4, C5, C6, C7, C8, C9, C10, C11, C12 ;
+    private final double y                                                 ; //Exponent below EM = 10
+    private final double S_elec_10                                         ; //Value at EM = 10
+
+    //Effective charge of He
+    private final double heliumZ2Term ;
+
+    //Effective charge of heavy ions
+    private final double   VFERMI1      ;
+    private final double   Z1_2_3       ; //Z1^(2/3)
+    private final double   Z1_1_3       ; //Z1^(1/3)
+    private final double   YR_min       ; //Lower limit of the reduced velocity, also the low velocity limit
+    private final double   VR_min       ;
+    private final double   fermiFactor  ;
+    private final double   zetaFactor   ;
+    private final double[] lambda       ; //Coefficient row of Z1
+    private final double[] vfCorrection ; //Coefficient row of Z2
+    private final double[] grid         ; //Common abscissa row
+
+    //Low velocity values of heavy ions
+    private final double EEE        ;
+    private final double SP_low     ;
+    private final double VFCORR_low ;
+    private final double HIPOWER    ;
+
+    //Nuclear stopping
+    private final int    Z1Z2 ;
+    private final double K3   ; //Z1^0.23 + Z2^0.23
+    private final double B1   ;
+
+    //Tabulated stopping, null if the formulas are used
+    private final StoppingDatabase database      ;
+    private final int              electronicRow ; //-1 if the pair is not tabulated
+    private final StoppingTable    table         ; //User supplied table of the pair, null if there is none
+
+    private StoppingKernel(double[][] stoppingCoefficients, int Z1, double M1, int Z2, StoppingDatabase database,
+                           StoppingTable table) {
+
+        this.Z1 = Z1;
+        this.M1 = M1;
+        this.Z2 = Z2;
+
+        this.database      = database                                                  ;
+        this.electronicRow = database != null ? database.getElectronicRow(Z1, Z2) : -1 ;
+        this.table         = table                                                     ;
+
+        double[] C = stoppingCoefficients[Z2];
+
+        C1  = C[ 9]; C2  = C[10]; C3  = C[11]; C4  = C[12];
+        C5  = C[13]; C6  = C[14]; C7  = C[15]; C8  = C[16];
+        C9  = C[17]; C10 = C[18]; C11 = C[19]; C12 = C[20];
+
+        y = Z2 > 6 ? 0.45d : 0.35d;
+
+        double S_Low_10  = C1*Math.pow(10,C2) + C3*Math.pow(10,C4);
+        double S_High_10 = C5/(Math.pow(10,C6))*Math.log(C7/10 + C8*10);
+        S_elec_10 = S_Low_10 * S_High_10 / (S_Low_10 + S_High_10);
+
+        heliumZ2Term = 0.007d + 0.00005*Z2;
+
+        VFERMI1      = C[7]                                                   ;
+        Z1_2_3       = Math.pow(Z1, 0.6667d)                                  ;
+        Z1_1_3       = Math.pow((double)Z1, 0.33333d)                         ;
+        fermiFactor  = 1.0d / (2.0d * VFERMI1 * VFERMI1)                      ;
+        zetaFactor   = (1.0d / ((double)Z1*(double)Z1)) * (0.08d + 0.0015d*(double)Z2) ;
+        lambda       = stoppingCoefficients[Z1]                               ;
+        vfCorrection = C                                                      ;
+        grid         = stoppingCoefficients[93]                               ;
+
+        double A = VRMIN / Z1_2_3;
+        VR_min = A;
+        YR_min = A < YRMIN ? YRMIN : A;
+
+        //Velocity and stopping at the low velocity limit
+        double vrmin = VRMIN;
+        A = YRMIN * Z1_2_3; if (vrmin < A) {vrmin = A;}
+        A = vrmin*vrmin - 0.8d*VFERMI1*VFERMI1; if (A<0) {A=0;}
+        double VMIN = 0.5d * (vrmin + Math.sqrt(A));
+        EEE    = 25 * VMIN * VMIN;
+        SP_low = getHydrogenStopping(EEE);
+
+        //Fermi velocity correction is only valid for E < 1E4 keV/amu
+        VFCORR_low = getVelocityCorrection(EEE <= 9999 ? EEE : 9999);
+
+        if (Z1 == 3) {HIPOWER = 0.55d;}
+        else if (Z2 < 7) {HIPOWER = 0.375d;}
+        else if (Z1 < 18 && (Z2 == 14 || Z2 == 32)) {HIPOWER = 0.375d;}
+        else {HIPOWER = 0.47d;}
+
+        Z1Z2 = Z1*Z2                                    ;
+        K3   = Math.pow(Z1,0.23f) + Math.pow(Z2,0.23f)  ;
+        B1   = 8.462f * Z1 * Z2 * M1                    ;
+    }
+
+    /**
+     * Compiles the kernel of a projectile (Z1, M1) in element Z2, all atomic numbers have to be within the
+     * coefficient table. The database is optional.
+     */
+    static StoppingKernel compile(double[][] stoppingCoefficients, int Z1, double M1, int Z2,
+                                  StoppingDatabase database) {
+        return new StoppingKernel(stoppingCoefficients, Z1, M1, Z2, database, null);
+    }
+
+    /**
+     * Same as above with a user supplied table of the pair, which takes precedence over the formulas within its
+     * range. A nuclear stopping column of the table is used for all isotopes of the element, but only if M1 is the
+     * projectile mass of the table.
+     */
+    static StoppingKernel compile(double[][] stoppingCoefficients, int Z1, double M1, int Z2, StoppingTable table) {
+        return new StoppingKernel(stoppingCoefficients, Z1, M1, Z2, null, table);
+    }
+
+    double getElectronicStopping(double E0) {
+
+        double result = 0;
+
+        if (table != null) {
+            result = table.getElectronicStopping(E0 / M1);
+            if (!Double.isNaN(result)) return result;
+            result = 0;
+        }
+
+        if (electronicRow >= 0) {
+            result = database.getElectronicStopping(electronicRow, E0 / M1);
+            if (!Double.isNaN(result)) return result;
+            result = 0;
+        }
+
+        //For Protons, Deuterons and Tritons
+        if (Z1 == 1) {
+            result = getHydrogenStopping(E0 / M1);
+        }
+
+        //For Helium
+        if (Z1 == 2) {
+            result = getHeliumStopping(E0);
+        }
+
+        //For heavy ions
+        if (Z1 > 2) {
+            result = getHeavyIonStopping(E0);
+        }
+
+        return result;
+    }
+
+    double getNuclearStopping(double M2, double E0) {
+
+        if (table != null && E0 > 0 && table.hasNuclearStopping(M1)) {
+            double S_nucl = table.getNuclearStopping(E0 / M1);
+            if (!Double.isNaN(S_nucl)) return S_nucl;
+        }
+
+        //No nuclear stopping for Protons, Deuterons and Tritons
+        if (Z1 <= 1) return 0.0d;
+
+        double K1 = 32.53f * M2 * E0;
+        double K2 = Z1Z2*(M1+M2);
+
+        double eps = K1/(K2*K3);
+        double sn  = database != null ? database.getReducedNuclearStopping(eps) : Double.NaN;
+
+        if (Double.isNaN(sn)) sn = getReducedNuclearStopping(eps);
+
+        double S_nucl = sn * B1 / ((M1 + M2)*K3);
+
+        if (E0>0) {
+            return S_nucl;
+        } else {
+            return 0.0d;
+        }
+    }
+
+    /**
+     * Universal reduced nuclear stopping sn(eps)
+     */
+    static double getReducedNuclearStopping(double eps) {
+
+        double sn;
+
+        if (eps <= 30) {
+            double A1 = Math.log(1 + 1.1383f * eps);
+            double A2 = 1*eps;
+            double A3 = 0.01321f*Math.pow(eps,0.21226f);
+            double A4 = 0.19593f*Math.pow(eps,0.50000f);
+            sn = A1 / (2.0f*(A2+A3+A4));
+        } else {
+            sn = Math.log(eps) / (2*eps);
+        }
+
+        return sn;
+    }
+
+    void getElectronicStopping(double[] energies, double[] result) {
+        for (int i=0; i<energies.length; i++) result[i] = getElectronicStopping(energies[i]);
+    }
+
+    void getNuclearStopping(double M2, double[] energies, double[] result) {
+        for (int i=0; i<energies.length; i++) result[i] = getNuclearStopping(M2, energies[i]);
+    }
+
+    /**
+     * Electronic stopping for H/D/T, EM = E0 / M1
+     */
+    private double getHydrogenStopping(double EM) {
+
+        double result = 0.0d;
+
+        if (EM >= 10.0d && EM < 10000.0d) {
+            double S_Low  = C1*Math.pow(EM,C2) + C3*Math.pow(EM,C4);
+            double S_High = C5/(Math.pow(EM,C6))*Math.log(C7/EM + C8*EM);
+            result = S_Low * S_High / (S_Low + S_High);
+        }
+
+        if (EM >= 10000.0d) {
+            double x = Math.log(EM)/EM;
+            result = C9 + C10*x + C11*x*x + C12/x;
+        }
+
+        if (EM < 10.0d) {
+            result = S_elec_10 * Math.pow(EM/10,y);
+        }
+
+        return result;
+    }
+
+    private double getHeliumStopping(double E0) {
+
+        double C0  =  0.286500d ;
+        double HC1 =  0.126600d ;
+        double HC2 = -0.001429d ;
+        double HC3 =  0.024020d ;
+        double HC4 = -0.011350d ;
+        double HC5 =  0.001475d ;
+
+        double EM = E0/M1;
+        double HE = Math.max(HE0, EM);
+        double B = Math.log(HE);
+        double A = 0.0d;
+
+        A += C0*Math.pow(B,0.0d);
+        A += HC1*Math.pow(B,1.0d);
+        A += HC2*Math.pow(B,2.0d);
+        A += HC3*Math.pow(B,3.0d);
+        A += HC4*Math.pow(B,4.0d);
+        A += HC5*Math.pow(B,5.0d);
+
+        if (A > 30) {
+            A = 30;
+        }
+
+        double HEH = 1.0d - Math.exp(-A);
+
+        A = (1.0d + heliumZ2Term*Math.exp(-Math.pow(7.6d - Math.log(HE),2)));
+        HEH = HEH * A * A;
+
+        double S_p = getHydrogenStopping(E0 / M1);
+        double result = (S_p * HEH * 4.0d);
+
+        if (EM <= HE0) {
+            result = result * Math.sqrt(EM/HE0);
+        }
+
+        return result;
+    }
+
+    private double getHeavyIonStopping(double E0) {
+
+        double EM = E0/M1;
+        double V  = Math.sqrt(EM/25.0d) / VFERMI1;
+
+        double VR, YR, A, Q, L, ZETA0, ZETA, LAMBDA0, LAMBDA1;
+        int index;
+
+        if (V<1) {
+            VR = (0.75d * VFERMI1) * (1.0d + (0.667d*V*V) - V*V*V*V/15.0d);
+        } else {
+            VR = V * VFERMI1 * (1.0d + 1.0d/(5.0d*V*V));
+        }
+
+        YR = VR/Z1_2_3;
+        if (YR < YRMIN) {YR = YRMIN;}
+        if (YR < VR_min) {YR = VR_min;}
+        A = -0.803d * Math.pow(YR,0.3d) + 1.3167d * Math.pow(YR,0.6d) + 0.38157d * YR + 0.008983d * YR * YR;
+        if (A>50) {A=50;}
+        Q = 1 - Math.exp(-A);
+        if (Q<0){Q=0;}
+        if (Q>1){Q=1;}
+
+        index = 0;
+
+        for (int i=22; i<40; i++) {
+            if (Q < grid[i]){
+                index = i-1;
+                break;
+            }
+        }
+
+        if (index<22) {index = 22;}
+        if (index>38) {index = 38;}
+        LAMBDA0 = lambda[index];
+        LAMBDA1 = (Q - grid[index]) * (lambda[index+1] - lambda[index]) / (grid[index+1] - grid[index]);
+        L = (LAMBDA0 + LAMBDA1) / Z1_1_3;
+
+        ZETA0 = Q + fermiFactor*(1.0d - Q) * Math.log(1.0d + Math.pow(4.0d*L*VFERMI1/1.919d,2.0d));
+        A = Math.log(EM);
+        if (A<0.0d){A=0.0d;}
+        ZETA = ZETA0 * (1.0d + zetaFactor * Math.exp(-Math.pow(7.6d-A,2.0d)));
+
+        if (YR <= YR_min) {
+
+            //Low velocity
+            return SP_low*Math.pow(ZETA*(double)Z1,2.0d)*VFCORR_low*Math.pow((EM/EEE),HIPOWER);
+
+        } else {
+
+            //Not Low velocity
+            double SP = getHydrogenStopping(EM);
+            return SP*Math.pow(ZETA*(double)Z1,2.0d)*getVelocityCorrection(EM <= 9999 ? EM : 9999);
+        }
+    }
+
+    //Fermi velocity correction of element Z2 at EION [keV/amu]
+    private double getVelocityCorrection(double EION) {
+
+        int index = 0;
+
+        for (int i=41; i<=53; i++) {
+            if (grid[i]<EION) {
+                index = i-1;
+                break;
+            }
+        }
+
+        if (index<41) {index=41;} else if (index>53) {index=53;}
+        double VFCORR0 = vfCorrection[index];
+        double VFCORR1 = (EION - grid[index])*(vfCorrection[index+1] - vfCorrection[index])/(grid[index+1] - grid[index]);
+
+        return VFCORR0 + VFCORR1;
+    }
+}
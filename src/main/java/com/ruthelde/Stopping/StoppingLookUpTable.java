@@ -0,0 +1,198 @@
+package com.ruthelde.Stopping;
+
+import com.ruthelde.Target.Layer;
+import com.ruthelde.Target.Projectile;
+import java.util.Arrays;
+
+/**
+ * Stopping power of one layer tabulated between EMin and EMax. The table starts on a logarithmic energy grid and is
+ * refined by bisection of all intervals whose midpoint deviates more than the given relative error from the exact
+ * value. Values in between the nodes are interpolated by monotone piecewise cubic Hermite splines (PCHIP), so the
+ * interpolation never overshoots around the stopping maximum.
+ */
+public class StoppingLookUpTable {
+
+    private static final int    NUM_START_NODES = 9    ; //Log. spaced nodes the refinement starts with
+    private static final int    MAX_NODES       = 1025 ; //Refinement stops if this number of nodes is reached
+    private static final double MIN_ENERGY      = 1.0  ; //keV, lower limit of the logarithmic grid
+
+    private final int      numberOfNodes ;
+    private final double[] energy        ;
+    private final double[] stopping      ;
+    private final double[] slope         ;
+
+    /**
+     * @param stoppingCalculator  calculator used for the exact stopping values
+     * @param projectile          projectile (Z, M), its energy is not changed
+     * @param layer               layer to tabulate
+     * @param EMin                lowest tabulated energy [keV], lower energies are clamped
+     * @param EMax                highest tabulated energy [keV], higher energies are clamped
+     * @param maxRelativeError    accepted relative deviation at the interval midpoints
+     */
+    public StoppingLookUpTable(StoppingCalculator stoppingCalculator, Projectile projectile, Layer layer,
+                               StoppingCalculationMode sm, CompoundCalculationMode cm, double EMin, double EMax,
+                               double maxRelativeError) {
+
+        EMin = Math.max(EMin, MIN_ENERGY);
+        EMax = Math.max(EMax, EMin * (1.0d + 1.0E-6));
+
+        int      n = NUM_START_NODES      ;
+        double[] E = new double[MAX_NODES] ;
+        double[] S = new double[MAX_NODES] ;
+
+        double logRatio = Math.log(EMax / EMin);
+        for (int i=0; i<n; i++) {
+            E[i] = i < n - 1 ? EMin * Math.exp(logRatio * i / (n - 1)) : EMax;
+        }
+        getExactValues(stoppingCalculator, projectile, layer, sm, cm, Arrays.copyOf(E, n), S);
+
+        double[]  D           = new double[MAX_NODES]  ;
+        double[]  E_new       = new double[MAX_NODES]  ;
+        double[]  S_new       = new double[MAX_NODES]  ;
+        double[]  E_mids      = new double[MAX_NODES]  ;
+        double[]  S_mids      = new double[MAX_NODES]  ;
+        boolean[] pending     = new boolean[MAX_NODES] ; //Interval starting at node i has to be checked
+        boolean[] pending_new = new boolean[MAX_NODES] ;
+        boolean   refined     = true                   ;
+
+        for (int i=0; i<n-1; i++) pending[i] = true;
+
+        while (refined && n < MAX_NODES) {
+
+            calculateSlopes(E, S, D, n);
+
+            //Exact values at the midpoints of all pending intervals in one batch
+            int k = 0;
+            for (int i=0; i<n-1; i++) {
+                if (pending[i]) E_mids[k++] = Math.sqrt(E[i] * E[i+1]);
+            }
+            getExactValues(stoppingCalculator, projectile, layer, sm, cm, Arrays.copyOf(E_mids, k), S_mids);
+
+            //Check the midpoints of all pending intervals and split the ones which are not reproduced within the
+            //tolerance. As the slopes depend on the neighbouring nodes, the adjacent intervals are checked again.
+            int     m        = 0     ;
+            boolean markNext = false ;
+            k = 0;
+            refined = false;
+
+            for (int i=0; i<n-1; i++) {
+
+                E_new[m] = E[i]; S_new[m] = S[i]; pending_new[m] = markNext; m++;
+                markNext = false;
+
+                if (!pending[i]) continue;
+
+                double E_mid   = E_mids[k]                       ;
+                double S_exact = S_mids[k++]                     ;
+                double S_inter = interpolate(E, S, D, i, E_mid) ;
+
+                if (Math.abs(S_inter - S_exact) > maxRelativeError * Math.abs(S_exact) && m + n - i - 1 < MAX_NODES) {
+
+                    if (m > 1) pending_new[m-2] = true;
+                    pending_new[m-1] = true;
+                    E_new[m] = E_mid; S_new[m] = S_exact; pending_new[m] = true; m++;
+                    markNext = true;
+                    refined  = true;
+                }
+            }
+            E_new[m] = E[n-1]; S_new[m] = S[n-1]; pending_new[m] = false; m++;
+
+            System.arraycopy(E_new, 0, E, 0, m);
+            System.arraycopy(S_new, 0, S, 0, m);
+            System.arraycopy(pending_new, 0, pending, 0, m);
+            n = m;
+        }
+
+        calculateSlopes(E, S, D, n);
+
+        this.numberOfNodes = n                   ;
+        this.energy        = Arrays.copyOf(E, n) ;
+        this.stopping      = Arrays.copyOf(S, n) ;
+        this.slope         = Arrays.copyOf(D, n) ;
+    }
+
+    /**
+     * Stopping power at energy E [keV] in the units of StoppingCalculator.getStoppingPower()
+     */
+    public double getStoppingPower(double E) {
+
+        if (E <= energy[0]) return stopping[0];
+        if (E >= energy[numberOfNodes-1]) return stopping[numberOfNodes-1];
+
+        //Find lower node (binary search)
+        int lo = 0;
+        int hi = numberOfNodes - 1;
+        while (hi - lo > 1) {
+            int mid = (lo + hi) >>> 1;
+            if (energy[mid] <= E) lo = mid; else hi = mid;
+        }
+
+        return interpolate(energy, stopping, slope, lo, E);
+    }
+
+    public int getNumberOfNodes() {
+        return numberOfNodes;
+    }
+
+    private static void getExactValues(StoppingCalculator stoppingCalculator, Projectile projectile, Layer layer,
+                                       StoppingCalculationMode sm, CompoundCalculationMode cm, double[] E,
+                                       double[] S) {
+
+        stoppingCalculator.getStoppingPowers(projectile.getZ(), projectile.getM(), layer, sm, cm, 2, E, S);
+    }
+
+    private static double interpolate(double[] E, double[] S, double[] D, int i, double x) {
+
+        double h   = E[i+1] - E[i]       ;
+        double t   = (x - E[i]) / h      ;
+        double t2  = t * t               ;
+        double t3  = t2 * t              ;
+        double h00 = 2.0d * t3 - 3.0d * t2 + 1.0d ;
+        double h10 = t3 - 2.0d * t2 + t           ;
+        double h01 = -2.0d * t3 + 3.0d * t2       ;
+        double h11 = t3 - t2                      ;
+
+        return h00 * S[i] + h10 * h * D[i] + h01 * S[i+1] + h11 * h * D[i+1];
+    }
+
+    //Fritsch-Carlson slopes for monotone cubic interpolation on a non-uniform grid
+    private static void calculateSlopes(double[] E, double[] S, double[] D, int n) {
+
+        if (n == 2) {
+            D[0] = D[1] = (S[1] - S[0]) / (E[1] - E[0]);
+            return;
+        }
+
+        for (int i=1; i<n-1; i++) {
+
+            double h0 = E[i]   - E[i-1]        ;
+            double h1 = E[i+1] - E[i]          ;
+            double d0 = (S[i]   - S[i-1]) / h0 ;
+            double d1 = (S[i+1] - S[i])   / h1 ;
+
+            if (d0 * d1 <= 0.0d) {
+                D[i] = 0.0d;
+            } else {
+                double w0 = 2.0d * h1 + h0;
+                double w1 = h1 + 2.0d * h0;
+                D[i] = (w0 + w1) / (w0 / d0 + w1 / d1);
+            }
+        }
+
+        D[0]   = endSlope(E[1] - E[0], E[2] - E[1], (S[1] - S[0]) / (E[1] - E[0]), (S[2] - S[1]) / (E[2] - E[1]));
+        D[n-1] = endSlope(E[n-1] - E[n-2], E[n-2] - E[n-3], (S[n-1] - S[n-2]) / (E[n-1] - E[n-2]),
+                (S[n-2] - S[n-3]) / (E[n-2] - E[n-3]));
+    }
+
+    private static double endSlope(double h0, double h1, double d0, double d1) {
+
+        double d = ((2.0d * h0 + h1) * d0 - h0 * d1) / (h0 + h1);
+
+        if (Math.signum(d) != Math.signum(d0)) {
+            d = 0.0d;
+        } else if (Math.signum(d0) != Math.signum(d1) && Math.abs(d) > Math.abs(3.0d * d0)) {
+            d = 3.0d * d0;
+        }
+        return d;
+    }
+}
@@ -87,8 +87,6 @@ public class StoppingPlotter {
 
     public MyPlotGenerator getPlot() {
 
-        double E0Org = projectile.getE();
-
         final int NUM_POINTS = 100;
         double conversionFactor;
         double E0[] = new double[NUM_POINTS];
@@ -116,13 +114,15 @@ public class StoppingPlotter {
         for (int i=0; i<NUM_POINTS; i++) {
             logE += increment;
             E0[i] = Math.pow(10, logE);
-            projectile.setE(E0[i]);
+        }
+
+        stoppingCalculator.getStoppingPowers(projectile.getZ(), projectile.getM(), layer,
+                stoppingPowerCalculationMode, compoundCalculationMode, 0, E0, Se);
+        stoppingCalculator.getStoppingPowers(projectile.getZ(), projectile.getM(), layer,
+                stoppingPowerCalculationMode, compoundCalculationMode, 1, E0, Sn);
 
-            Se[i] = stoppingCalculator.getStoppingPower(projectile, layer,
-                    stoppingPowerCalculationMode, compoundCalculationMode,0);
+        for (int i=0; i<NUM_POINTS; i++) {
             Se[i] /= conversionFactor;
-            Sn[i] = stoppingCalculator.getStoppingPower(projectile, layer,
-                    stoppingPowerCalculationMode, compoundCalculationMode,1);
             Sn[i] /= conversionFactor;
             St[i] = Se[i] + Sn[i];
         }
@@ -152,8 +152,6 @@ public class StoppingPlotter {
         ps3.setStroke(4);
         plotGenerator.plotSeries.add(ps3);
 
-        projectile.setE(E0Org);
-
         return plotGenerator;
     }
 }
@@ -0,0 +1,241 @@
+package com.ruthelde.Stopping;
+
+import com.ruthelde.Target.Element;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * User supplied stopping of one projectile in one element or compound, e.g. measured values or a SRIM export. The
+ * data is resampled on load to a uniform logarithmic grid of E/M1, so a look up is one logarithm and one linear
+ * interpolation without searching. The electronic stopping of other isotopes of the projectile is scaled with the
+ * velocity, like in the ZB formulas. The nuclear stopping depends on the masses of projectile and target atom via the
+ * reduced energy, so it is only used for the projectile mass of the file, see hasNuclearStopping(M1).
+ *
+ * File format (text, '#' starts a comment):
+ *
+ *   # projectile = 2         atomic number Z1
+ *   # mass = 4.0026          mass of the projectile the energies refer to [amu]
+ *   # element = Si           either the target element ...
+ *   # compound = SiO2        ... or the name of a compound, which layers reference by Layer.setStoppingTable()
+ *   E [keV]   Se   [Sn]      stopping in eV/(10^15 atoms/cm^2), Sn is optional
+ *
+ * Energies have to be ascending. Compound stopping is per atom, as the Bragg sum of StoppingCalculator.
+ */
+public final class StoppingTable {
+
+    private static final int    NODES_PER_DECADE = 128   ;
+    private static final int    MIN_POINTS       = 2     ;
+    private static final double MASS_TOLERANCE   = 0.01d ; //amu, projectile masses within are the file's isotope
+
+    private final int      Z1            ;
+    private final double   M1            ; //Mass of the projectile the energies refer to
+    private final int      Z2            ; //0 for compounds
+    private final String   compound      ; //null for elements
+    private final double   logEMMin      ;
+    private final double   nodesPerLog   ;
+    private final double   xMax          ; //Grid coordinate of the last data point
+    private final int      numberOfNodes ;
+    private final double[] Se            ; //[node]
+    private final double[] Sn            ; //[node], null if the file has no nuclear stopping
+
+    private StoppingTable(int Z1, double M1, int Z2, String compound, double[] EM, double[] Se, double[] Sn) {
+
+        this.Z1       = Z1       ;
+        this.M1       = M1       ;
+        this.Z2       = Z2       ;
+        this.compound = compound ;
+
+        double logMin = Math.log(EM[0]);
+        double logMax = Math.log(EM[EM.length - 1]);
+
+        this.nodesPerLog   = NODES_PER_DECADE / Math.log(10.0d)           ;
+        this.logEMMin      = logMin                                       ;
+        this.xMax          = (logMax - logMin) * nodesPerLog              ;
+        this.numberOfNodes = Math.max(2, (int) Math.ceil(xMax) + 1)       ;
+
+        this.Se = resample(EM, Se) ;
+        this.Sn = Sn != null ? resample(EM, Sn) : null;
+    }
+
+    /**
+     * Reads a table file, see the class comment for the format
+     */
+    public static StoppingTable load(File file) throws IOException {
+
+        int      Z1       = 0    ;
+        double   M1       = 0.0d ;
+        int      Z2       = 0    ;
+        String   compound = null ;
+        int      columns  = 0    ;
+        int      n        = 0    ;
+        double[] E        = new double[64] ;
+        double[] Se       = new double[64] ;
+        double[] Sn       = new double[64] ;
+
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+
+                line = line.trim();
+                if (line.isEmpty()) continue;
+
+                if (line.startsWith("#")) {
+
+                    int separator = line.indexOf('=');
+                    if (separator < 0) continue;
+
+                    String key   = line.substring(1, separator).trim().toLowerCase(Locale.ROOT) ;
+                    String value = line.substring(separator + 1).trim()                         ;
+
+                    switch (key) {
+                        case "projectile":
+                            Z1 = Integer.parseInt(value);
+                            break;
+                        case "mass":
+                            M1 = Double.parseDouble(value);
+                            break;
+                        case "element":
+                            Element element = new Element();
+                            if (!element.setAtomicNumberByName(value)) {
+                                throw new IOException(file.getName() + ": unknown element " + value);
+                            }
+                            Z2 = element.getAtomicNumber();
+                            break;
+                        case "compound":
+                            compound = value;
+                            break;
+                    }
+                    continue;
+                }
+
+                String[] values = line.split("[\\s,;]+");
+
+                if (columns == 0) columns = values.length;
+                if (values.length != columns || columns < 2 || columns > 3) {
+                    throw new IOException(file.getName() + ": expected 2 or 3 columns in line '" + line + "'");
+                }
+
+                if (n == E.length) {
+                    E  = Arrays.copyOf(E,  2 * n) ;
+                    Se = Arrays.copyOf(Se, 2 * n) ;
+                    Sn = Arrays.copyOf(Sn, 2 * n) ;
+                }
+
+                E[n]  = Double.parseDouble(values[0])                         ;
+                Se[n] = Double.parseDouble(values[1])                         ;
+                Sn[n] = columns == 3 ? Double.parseDouble(values[2]) : 0.0d   ;
+
+                if (!(E[n] > 0.0d) || (n > 0 && !(E[n] > E[n-1]))) {
+                    throw new IOException(file.getName() + ": energies have to be positive and ascending");
+                }
+                n++;
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException(file.getName() + ": " + e.getMessage());
+        }
+
+        if (Z1 < 1 || Z1 > Element.MAX_ATOMIC_NUMBER || !(M1 > 0.0d)) {
+            throw new IOException(file.getName() + ": projectile and mass have to be given");
+        }
+        if ((Z2 == 0) == (compound == null)) {
+            throw new IOException(file.getName() + ": either an element or a compound has to be given");
+        }
+        if (n < MIN_POINTS) {
+            throw new IOException(file.getName() + ": at least " + MIN_POINTS + " data points are needed");
+        }
+
+        double[] EM = new double[n];
+        for (int i=0; i<n; i++) EM[i] = E[i] / M1;
+
+        return new StoppingTable(Z1, M1, Z2, compound, EM, Arrays.copyOf(Se, n),
+                columns == 3 ? Arrays.copyOf(Sn, n) : null);
+    }
+
+    public int getZ1() {
+        return Z1;
+    }
+
+    /**
+     * Mass of the projectile the table was given for [amu]
+     */
+    public double getM1() {
+        return M1;
+    }
+
+    /**
+     * Atomic number of the target element, 0 for compound tables
+     */
+    public int getZ2() {
+        return Z2;
+    }
+
+    /**
+     * Name of the compound, null for element tables
+     */
+    public String getCompound() {
+        return compound;
+    }
+
+    /**
+     * True if the table has nuclear stopping for a projectile of mass M1, i.e. if it has a nuclear stopping column
+     * and M1 is the mass of the file's projectile
+     */
+    public boolean hasNuclearStopping(double M1) {
+        return Sn != null && Math.abs(M1 - this.M1) <= MASS_TOLERANCE;
+    }
+
+    /**
+     * Electronic stopping at EM = E/M1 [keV/amu], NaN outside of the tabulated range
+     */
+    double getElectronicStopping(double EM) {
+        return interpolate(Se, (Math.log(EM) - logEMMin) * nodesPerLog);
+    }
+
+    /**
+     * Nuclear stopping at EM = E/M1 [keV/amu], NaN outside of the tabulated range or if it is not tabulated. Only
+     * valid for the projectile mass of the file, see hasNuclearStopping(M1).
+     */
+    double getNuclearStopping(double EM) {
+        return Sn != null ? interpolate(Sn, (Math.log(EM) - logEMMin) * nodesPerLog) : Double.NaN;
+    }
+
+    private double interpolate(double[] y, double x) {
+
+        if (!(x >= 0.0d && x <= xMax)) return Double.NaN;
+
+        int i = Math.min((int) x, numberOfNodes - 2);
+
+        return y[i] + (x - i) * (y[i+1] - y[i]);
+    }
+
+    //Values of the data points (ascending x) on the grid nodes, linear in log(EM) between the points. The last node
+    //lies behind the last point (at most one node spacing), it is extrapolated from the last two points so that the
+    //interpolation up to xMax stays on the last segment.
+    private double[] resample(double[] EM, double[] values) {
+
+        double[] result = new double[numberOfNodes];
+        int      j      = 0;
+
+        for (int i=0; i<numberOfNodes; i++) {
+
+            double logEM = logEMMin + i / nodesPerLog;
+
+            while (j < EM.length - 2 && Math.log(EM[j+1]) < logEM) j++;
+
+            double x0 = Math.log(EM[j])   ;
+            double x1 = Math.log(EM[j+1]) ;
+            double t  = Math.max(0.0d, (logEM - x0) / (x1 - x0));
+
+            result[i] = values[j] + t * (values[j+1] - values[j]);
+        }
+
+        return result;
+    }
+}
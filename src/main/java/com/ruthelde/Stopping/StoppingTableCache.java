@@ -0,0 +1,193 @@
+package com.ruthelde.Stopping;
+
+import com.ruthelde.Target.Element;
+import com.ruthelde.Target.Isotope;
+import com.ruthelde.Target.Layer;
+import com.ruthelde.Target.Projectile;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process wide cache of stopping look up tables. The stopping of a layer only depends on the projectile and the
+ * layer's composition, not on its areal density. Tables are therefore keyed by projectile, energy range, calculation
+ * modes, correction factors, the atomic fractions of all elements and isotopes and, for user supplied tables, the
+ * compound table of the layer and the version of the table library. The fractions are quantized with the table
+ * tolerance, so compositions which differ less than the table's own accuracy share one table.
+ * The least recently used table is evicted if the capacity is exceeded.
+ */
+public class StoppingTableCache {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private static final StoppingTableCache sharedInstance = new StoppingTableCache(DEFAULT_CAPACITY);
+
+    private final LinkedHashMap<Key, StoppingLookUpTable> tables   ;
+    private final int                                     capacity ;
+    private long                                          hits     ;
+    private long                                          misses   ;
+
+    private final ThreadLocal<Key> lookUpKeys = ThreadLocal.withInitial(Key::new);
+
+    public StoppingTableCache(int capacity) {
+
+        this.capacity = capacity;
+        this.tables   = new LinkedHashMap<Key, StoppingLookUpTable>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, StoppingLookUpTable> eldest) {
+                return size() > StoppingTableCache.this.capacity;
+            }
+        };
+    }
+
+    public static StoppingTableCache getSharedInstance() {
+        return sharedInstance;
+    }
+
+    /**
+     * Returns the cached table for the given layer or builds and caches a new one. The stopping calculator has to
+     * use the given correction factors (null = no correction).
+     */
+    public StoppingLookUpTable getTable(StoppingCalculator stoppingCalculator, Projectile projectile, Layer layer,
+                                        StoppingCalculationMode sm, CompoundCalculationMode cm,
+                                        double[] correctionFactors, double EMin, double EMax,
+                                        double maxRelativeError) {
+
+        //Look up with a reused key, a copy is only made for new entries
+        Key key = lookUpKeys.get();
+        key.set(projectile, layer, sm, cm, correctionFactors, EMin, EMax, maxRelativeError);
+
+        synchronized (this) {
+            StoppingLookUpTable table = tables.get(key);
+            if (table != null) {
+                hits++;
+                return table;
+            }
+            misses++;
+        }
+
+        //Build outside the lock, concurrent misses of the same key just build the same table twice
+        StoppingLookUpTable table = new StoppingLookUpTable(stoppingCalculator, projectile, layer, sm, cm, EMin, EMax,
+                maxRelativeError);
+
+        synchronized (this) {
+            tables.put(key.getCopy(), table);
+        }
+
+        return table;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized int getSize() {
+        return tables.size();
+    }
+
+    public synchronized void clear() {
+        tables.clear();
+        hits   = 0;
+        misses = 0;
+    }
+
+    private static final class Key {
+
+        private long[] values   ;
+        private int    length   ;
+        private int    hashCode ;
+
+        Key() {
+            values = new long[0];
+        }
+
+        void set(Projectile projectile, Layer layer, StoppingCalculationMode sm, CompoundCalculationMode cm,
+                 double[] correctionFactors, double EMin, double EMax, double maxRelativeError) {
+
+            int size = 9;
+            for (Element element : layer.getElementList()) size += 3 + 2 * element.getIsotopeList().size();
+
+            if (values.length < size) values = new long[size];
+
+            long[] v = values;
+            int    i = 0;
+
+            v[i++] = projectile.getZ()                          ;
+            v[i++] = Double.doubleToLongBits(projectile.getM()) ;
+            v[i++] = sm.ordinal() * 64L + cm.ordinal()          ;
+            v[i++] = Double.doubleToLongBits(EMin)              ;
+            v[i++] = Double.doubleToLongBits(EMax)              ;
+            v[i++] = Double.doubleToLongBits(maxRelativeError)  ;
+            v[i++] = layer.getElementList().size()              ;
+
+            if (sm == StoppingCalculationMode.TABULATED) {
+                StoppingTableLibrary library = StoppingTableLibrary.getSharedInstance();
+                v[i++] = library.getVersion()                            ;
+                v[i++] = library.getCompoundId(layer.getStoppingTable()) ;
+            } else {
+                v[i++] = 0;
+                v[i++] = 0;
+            }
+
+            double sumOfAllAtomicRatios = 0.0d;
+            for (Element element : layer.getElementList()) sumOfAllAtomicRatios += element.getRatio();
+
+            for (Element element : layer.getElementList()) {
+
+                int    Z          = element.getAtomicNumber() ;
+                double correction = 1.0d                      ;
+                if (correctionFactors != null && correctionFactors.length == Element.MAX_ATOMIC_NUMBER && Z > 0) {
+                    correction = correctionFactors[Z-1];
+                }
+
+                v[i++] = Z;
+                v[i++] = Double.doubleToLongBits(correction);
+                v[i++] = Math.round(element.getRatio() / sumOfAllAtomicRatios / maxRelativeError);
+
+                double sumOfAllIsotopeRatios = 0.0d;
+                for (Isotope isotope : element.getIsotopeList()) sumOfAllIsotopeRatios += isotope.getAbundance();
+
+                for (Isotope isotope : element.getIsotopeList()) {
+                    v[i++] = Double.doubleToLongBits(isotope.getMass());
+                    v[i++] = Math.round(isotope.getAbundance() / sumOfAllIsotopeRatios / maxRelativeError);
+                }
+            }
+
+            int h = 1;
+            for (int j=0; j<size; j++) h = 31 * h + Long.hashCode(v[j]);
+
+            this.length   = size ;
+            this.hashCode = h    ;
+        }
+
+        Key getCopy() {
+
+            Key result = new Key();
+            result.values   = Arrays.copyOf(values, length) ;
+            result.length   = length                        ;
+            result.hashCode = hashCode                      ;
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+
+            if (!(o instanceof Key)) return false;
+
+            Key key = (Key) o;
+            if (hashCode != key.hashCode || length != key.length) return false;
+
+            for (int i=0; i<length; i++) if (values[i] != key.values[i]) return false;
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
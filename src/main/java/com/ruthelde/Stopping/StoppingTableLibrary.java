@@ -0,0 +1,148 @@
+package com.ruthelde.Stopping;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Process wide set of user supplied stopping tables for the TABULATED mode. Element tables are found by (Z1, Z2),
+ * compound tables by Z1 and the compound name a layer references. Loading a table replaces one with the same key.
+ * Look ups read an immutable snapshot, so the simulation threads do not need a lock. The version is increased with
+ * each change, compiled kernels and cached look up tables which depend on the tables use it to detect outdated data.
+ *
+ * If the system property ruthelde.stoppingTables names a directory, all files in it are loaded on first use.
+ */
+public final class StoppingTableLibrary {
+
+    public static final String DIRECTORY_PROPERTY = "ruthelde.stoppingTables";
+
+    private static StoppingTableLibrary sharedInstance;
+
+    private volatile Map<Long, StoppingTable>   elementTables  ;
+    private volatile Map<String, StoppingTable> compoundTables ;
+    private volatile int                        version        ;
+
+    //Ids of all compound names ever referenced, never removed so cache keys stay unique
+    private final Map<String, Integer> compoundIds = new HashMap<>();
+
+    public StoppingTableLibrary() {
+
+        this.elementTables  = new HashMap<>() ;
+        this.compoundTables = new HashMap<>() ;
+    }
+
+    public static synchronized StoppingTableLibrary getSharedInstance() {
+
+        if (sharedInstance == null) {
+
+            sharedInstance = new StoppingTableLibrary();
+
+            String directoryName = System.getProperty(DIRECTORY_PROPERTY);
+            if (directoryName != null) {
+                File[] files = new File(directoryName).listFiles(File::isFile);
+                if (files != null) sharedInstance.load(files);
+            }
+        }
+
+        return sharedInstance;
+    }
+
+    /**
+     * Loads a table file and adds the table to the library
+     */
+    public StoppingTable load(File file) throws IOException {
+
+        StoppingTable table = StoppingTable.load(file);
+        add(table);
+        return table;
+    }
+
+    /**
+     * Loads all given files, files which can not be read are reported and skipped. Returns the number of tables
+     * loaded.
+     */
+    public int load(File[] files) {
+
+        int result = 0;
+
+        for (File file : files) {
+            try {
+                load(file);
+                result++;
+            } catch (IOException e) {
+                System.out.println("Error reading stopping table: " + e.getMessage());
+            }
+        }
+
+        return result;
+    }
+
+    public synchronized void add(StoppingTable table) {
+
+        if (table.getCompound() == null) {
+            Map<Long, StoppingTable> tables = new HashMap<>(elementTables);
+            tables.put(getElementKey(table.getZ1(), table.getZ2()), table);
+            elementTables = tables;
+        } else {
+            Map<String, StoppingTable> tables = new HashMap<>(compoundTables);
+            tables.put(getCompoundKey(table.getZ1(), table.getCompound()), table);
+            compoundTables = tables;
+        }
+
+        version++;
+    }
+
+    public synchronized void clear() {
+
+        elementTables  = new HashMap<>() ;
+        compoundTables = new HashMap<>() ;
+        version++;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public int getNumberOfTables() {
+        return elementTables.size() + compoundTables.size();
+    }
+
+    /**
+     * Table of projectile Z1 in element Z2, null if there is none
+     */
+    public StoppingTable getElementTable(int Z1, int Z2) {
+        return elementTables.get(getElementKey(Z1, Z2));
+    }
+
+    /**
+     * Table of projectile Z1 in the named compound, null if there is none
+     */
+    public StoppingTable getCompoundTable(int Z1, String compound) {
+        return compound != null ? compoundTables.get(getCompoundKey(Z1, compound)) : null;
+    }
+
+    /**
+     * Unique number of a compound name, 0 for null
+     */
+    public synchronized int getCompoundId(String compound) {
+
+        if (compound == null) return 0;
+
+        Integer id = compoundIds.get(compound);
+        if (id == null) {
+            id = compoundIds.size() + 1;
+            compoundIds.put(compound, id);
+        }
+
+        return id;
+    }
+
+    private static long getElementKey(int Z1, int Z2) {
+        return ((long) Z1 << 32) | Z2;
+    }
+
+    private static String getCompoundKey(int Z1, String compound) {
+        return Z1 + ":" + compound;
+    }
+}
@@ -21,6 +21,7 @@ public class Layer implements Serializable {
     private double    massDensity;
     private double    thickness;
     private double    min_AD, max_AD;
+    private String    stoppingTable; //Compound stopping table of the TABULATED mode, null for the Bragg rule
 
     public Layer() {
         this.elementList = new LinkedList<Element>();
@@ -63,6 +64,14 @@ public class Layer implements Serializable {
 
     public double getMaxAD(){return max_AD;}
 
+    public void     setStoppingTable(String stoppingTable) {
+        this.stoppingTable = stoppingTable != null && !stoppingTable.trim().isEmpty() ? stoppingTable.trim() : null;
+    }
+
+    public String   getStoppingTable() {
+        return stoppingTable;
+    }
+
     public double   getArealDensity() {
         return arealDensity;
     }
@@ -328,6 +337,12 @@ public class Layer implements Serializable {
             val = "" + arealDensity;
             target_properties.setProperty(prop, val);
 
+            if (stoppingTable != null) {
+                prop = "Stopping_Table";
+                val = stoppingTable;
+                target_properties.setProperty(prop, val);
+            }
+
             prop = "Number_of_Elements";
             val = "" + elementList.size();
             target_properties.setProperty(prop, val);
@@ -397,6 +412,10 @@ public class Layer implements Serializable {
                 val = target_properties.getProperty(prop);
                 setArealDensity(Double.parseDouble(val));
 
+                prop = "Stopping_Table";
+                val = target_properties.getProperty(prop);
+                setStoppingTable(val);
+
                 prop = "Number_of_Elements";
                 val = target_properties.getProperty(prop);
                 int num_el = Integer.parseInt(val);
@@ -455,6 +474,7 @@ public class Layer implements Serializable {
 
         result.setArealDensity(arealDensity);
         result.setConstrains(min_AD, max_AD);
+        result.setStoppingTable(stoppingTable);
         result.calculateMassDensity();
 
         return result;
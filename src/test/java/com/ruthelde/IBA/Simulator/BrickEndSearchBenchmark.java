@@ -0,0 +1,73 @@
+package com.ruthelde.IBA.Simulator;
+
+import com.ruthelde.Target.Layer;
+
+/**
+ * Brick end search against the former stepping in fixed 5 nm steps, for H and He in thick layers of low and high
+ * stopping. For each search the number of detected energy evaluations per brick and the largest deviation of a brick
+ * end's detected energy from its channel boundary are printed. Run with the test classes on the class path:
+ *
+ *   java -cp target/classes:target/test-classes com.ruthelde.IBA.Simulator.BrickEndSearchBenchmark
+ */
+public class BrickEndSearchBenchmark {
+
+    private static final double   FIXED_STEP = 5.0 ; //nm, step width of the former search
+    private static final double[] TOLERANCES = {1E-2, 3E-3, 1E-3, 1E-4} ;
+    private static final int[]    CHANNELS   = {1024, 4096} ;
+
+    //Projectiles {Z1, M1}: H, He
+    private static final double[][] PROJECTILES = {{1, 1.00783}, {2, 4.00260}};
+    private static final String[]   NAMES       = {"H", "He"};
+
+    public static void main(String[] args) {
+
+        System.out.println("Beam   Layer              Channels   Search        Bricks   Evaluations per brick   Max. error [ch]");
+
+        for (int p=0; p<PROJECTILES.length; p++) {
+            for (String[] layerData : new String[][]{{"C", null, "20000"}, {"Si", "O", "20000"}, {"Hf", "O", "3000"}}) {
+                for (int numberOfChannels : CHANNELS) {
+
+                    Layer  layer = createLayer(layerData[0], layerData[1], Double.parseDouble(layerData[2]));
+                    String name  = layerData[0] + (layerData[1] != null ? layerData[1] + "2" : "") + " ("
+                                 + layerData[2] + " TFU)";
+
+                    //Scattering at the layer's heaviest element
+                    double M2 = layer.getElementList().getFirst().getAverageMass();
+
+                    BrickEndWalk walk = new BrickEndWalk((int) PROJECTILES[p][0], PROJECTILES[p][1], 2000.0d, layer,
+                            M2, numberOfChannels);
+
+                    print(NAMES[p], name, numberOfChannels, "5 nm steps", walk.step(FIXED_STEP));
+                    for (double tolerance : TOLERANCES) {
+                        print(NAMES[p], name, numberOfChannels, "tol. " + tolerance, walk.search(tolerance));
+                    }
+                }
+            }
+        }
+    }
+
+    private static void print(String beam, String layer, int numberOfChannels, String search,
+                              BrickEndWalk.Result result) {
+
+        System.out.println(String.format("%-6s %-18s %8d   %-12s %7d   %21.2f   %15.2E", beam, layer,
+                numberOfChannels, search, result.bricks, (double) result.evaluations / result.bricks,
+                result.maxError));
+    }
+
+    //Element or oxide MO2 of the given areal density [TFU]
+    private static Layer createLayer(String element, String oxygen, double arealDensity) {
+
+        Layer layer = new Layer();
+        layer.getElementList().get(0).setAtomicNumberByName(element);
+        if (oxygen != null) {
+            layer.addElement();
+            layer.setElementAtomicNumberByName(1, oxygen);
+            layer.setElementRatio(0, 1.0d);
+            layer.setElementRatio(1, 2.0d);
+            layer.normalizeElements();
+        }
+        layer.setArealDensity(arealDensity);
+
+        return layer;
+    }
+}
@@ -0,0 +1,38 @@
+package com.ruthelde.IBA.Simulator;
+
+import com.ruthelde.IBA.CalculationSetup.CalculationSetup;
+import com.ruthelde.Target.Layer;
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The brick end search with the default tolerance has to be more accurate than the former stepping in 5 nm steps and
+ * needs far fewer evaluations in a thick layer of low stopping, in which the bricks are thicker than the steps.
+ * BrickEndSearchBenchmark compares both for more layers and tolerances.
+ */
+public class BrickEndSearchTest {
+
+    private static final double FIXED_STEP      = 5.0 ; //nm, step width of the former search
+    private static final double MAX_EVALUATIONS = 0.5 ; //Evaluations of the search relative to the stepping
+
+    @Test
+    public void searchIsMoreAccurateAndFasterThanStepping() {
+
+        //2 MeV H in 20000 TFU C, 2 keV per channel: bricks of about 30 nm
+        Layer layer = new Layer();
+        layer.getElementList().get(0).setAtomicNumberByName("C");
+        layer.setArealDensity(20000.0d);
+
+        BrickEndWalk walk = new BrickEndWalk(1, 1.00783, 2000.0d, layer, 12.0d, 1024);
+
+        BrickEndWalk.Result stepping = walk.step(FIXED_STEP);
+        BrickEndWalk.Result search   = walk.search(CalculationSetup.DEFAULT_BRICK_TOLERANCE);
+
+        assertTrue("Bricks", search.bricks > 50 && search.bricks == stepping.bricks);
+        assertTrue("Error " + search.maxError + " of the search, " + stepping.maxError + " of the stepping",
+                search.maxError < stepping.maxError);
+        assertTrue(search.evaluations + " evaluations of the search, " + stepping.evaluations + " of the stepping",
+                search.evaluations < MAX_EVALUATIONS * stepping.evaluations);
+    }
+}
@@ -0,0 +1,152 @@
+package com.ruthelde.IBA.Simulator;
+
+import com.ruthelde.IBA.Kinematics.KinematicsCalculator;
+import com.ruthelde.Stopping.CompoundCalculationMode;
+import com.ruthelde.Stopping.StoppingCalculationMode;
+import com.ruthelde.Stopping.StoppingCalculator;
+import com.ruthelde.Target.Layer;
+import com.ruthelde.Target.Projectile;
+
+/**
+ * Brick ends of one isotope through a single layer, found either by SimulationKernel.findBrickEnd() (seeded like in
+ * the kernel's brick loop) or by the former stepping in fixed steps with linear interpolation. Used to compare both
+ * searches on the same path tables. The error of a brick end is the deviation of its detected energy from the
+ * channel boundary [channels].
+ */
+class BrickEndWalk {
+
+    private static final double E_CUTOFF = 50.0 ; //keV, as in SimulationKernel
+    private static final double THETA    = 170.0;
+    private static final double ALPHA    = 0.0  ;
+    private static final double BETA     = 10.0 ;
+
+    static class Result {
+        int    bricks      ;
+        long   evaluations ;
+        double maxError    ; //channels
+    }
+
+    private final SimulationWorkspace ws        ; //Counts the evaluations of the searches
+    private final SimulationWorkspace check     ; //Evaluates the errors without counting them
+    private final double              thickness ; //nm
+    private final double              E0        ;
+    private final double              a         ; //keV per channel
+    private final double              K         ;
+
+    /**
+     * Layer on vacuum, hit by a projectile (Z1, M1, E0), the isotope of mass M2 scatters at THETA into a detector of
+     * numberOfChannels channels from 0 to E0
+     */
+    BrickEndWalk(int Z1, double M1, double E0, Layer layer, double M2, int numberOfChannels) {
+
+        int      numberOfEnergies = ExitEnergyTable.getNumberOfEnergies() ;
+        double   conversion       = layer.getThicknessConversionFactor() * 1000.0 ;
+        double[] energies         = new double[numberOfEnergies]         ;
+        double[] stopping         = new double[numberOfEnergies]         ;
+
+        for (int i=0; i<numberOfEnergies; i++) energies[i] = Math.max(i * E0 / (numberOfEnergies - 1), E_CUTOFF);
+
+        new StoppingCalculator().getStoppingPowers(Z1, M1, layer, StoppingCalculationMode.ZB,
+                CompoundCalculationMode.BRAGG, 2, energies, stopping);
+        for (int i=0; i<numberOfEnergies; i++) stopping[i] /= conversion;
+
+        double[]   layerThicknesses = {layer.getThickness()}          ;
+        double[][] pathStopping     = {stopping}                      ;
+        double[]   bohrFactors      = {0.26 * Z1 * Z1 / conversion}   ;
+
+        ws    = new SimulationWorkspace() ;
+        check = new SimulationWorkspace() ;
+
+        for (SimulationWorkspace workspace : new SimulationWorkspace[]{ws, check}) {
+            workspace.incomingEnergyProfile.calculate(layerThicknesses, pathStopping, bohrFactors, E0, E_CUTOFF, ALPHA);
+            workspace.exitEnergyTable.calculate(layerThicknesses, pathStopping, bohrFactors, E0, E_CUTOFF, BETA);
+        }
+
+        Projectile projectile = new Projectile(Z1, M1, E0);
+
+        this.thickness = layer.getThickness()                                       ;
+        this.E0        = E0                                                         ;
+        this.a         = E0 / numberOfChannels                                      ;
+        this.K         = KinematicsCalculator.getBSKFactorA(projectile, M2, THETA)  ;
+    }
+
+    /**
+     * Brick ends found by SimulationKernel.findBrickEnd() with the given tolerance [channels]
+     */
+    Result search(double tolerance) {
+        return walk(0.0d, tolerance * a);
+    }
+
+    /**
+     * Brick ends found by steps of dx [nm]
+     */
+    Result step(double dx) {
+        return walk(dx, 0.0d);
+    }
+
+    private Result walk(double step, double tolerance) {
+
+        Result result = new Result();
+
+        double E_det   = K * E0                     ;
+        double E_det_b = a * Math.floor(E_det / a)  ;
+        double depth   = 0.0d                       ;
+        double dx      = 5.0d                       ; //Thickness per channel, initial guess of the kernel
+
+        long evaluations = ws.brickEndEvaluations;
+
+        while (E_det > E_CUTOFF && depth < thickness) {
+
+            double x;
+            if (step > 0.0d) {
+                x = stepBrickEnd(depth, E_det, E_det_b, step);
+            } else {
+                double guess = dx * Math.min((E_det - E_det_b) / a, 1.0d);
+                x = SimulationKernel.findBrickEnd(ws, ws.incomingEnergyProfile, ws.exitEnergyTable, null, K, depth,
+                        E_det, E_det_b, guess, tolerance, thickness);
+            }
+
+            if (x >= thickness) break;
+
+            double error = Math.abs(getDetectorEnergy(check, x) - E_det_b) / a;
+            result.maxError = Math.max(result.maxError, error);
+            result.bricks++;
+
+            dx      = (x - depth) * a / (E_det - E_det_b) ;
+            depth   = x                                   ;
+            E_det   = E_det_b                             ;
+            E_det_b = E_det_b - a                         ;
+        }
+
+        result.evaluations = ws.brickEndEvaluations - evaluations;
+
+        return result;
+    }
+
+    //Former search: steps of dx until the detected energy is not above E_det_b any more, then linear interpolation
+    private double stepBrickEnd(double x0, double E_det0, double E_det_b, double dx) {
+
+        double x          = x0     ;
+        double x_prev     = x0     ;
+        double E_det      = E_det0 ;
+        double E_det_prev = E_det0 ;
+
+        while (E_det > E_det_b && x < thickness) {
+            x_prev     = x;
+            E_det_prev = E_det;
+            x          = Math.min(x + dx, thickness);
+            E_det      = getDetectorEnergy(ws, x);
+            ws.brickEndEvaluations++;
+        }
+
+        if (E_det < E_det_b) x -= (x - x_prev) * (E_det_b - E_det) / (E_det_prev - E_det);
+
+        return x;
+    }
+
+    private double getDetectorEnergy(SimulationWorkspace workspace, double x) {
+
+        double E = workspace.incomingEnergyProfile.getEnergy(x);
+        return workspace.exitEnergyTable.getSurfaceEnergy(K * E, x);
+    }
+}
@@ -0,0 +1,139 @@
+package com.ruthelde.IBA.Simulator;
+
+import com.ruthelde.IBA.CalculationSetup.CalculationSetup;
+import com.ruthelde.IBA.Detector.DetectorSetup;
+import com.ruthelde.IBA.ExperimentalSetup.ExperimentalSetup;
+import com.ruthelde.Target.Layer;
+import com.ruthelde.Target.Target;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Fitness simulations which take their bricks from a BrickSpectra, either resumed below common upper layers or
+ * restored for another charge and resolution, have to give the same spectrum and fitness as a simulation from scratch.
+ */
+public class BrickSpectraTest {
+
+    private static final int    NUMBER_OF_CHANNELS = 512   ;
+    private static final double TOLERANCE          = 1E-12 ; //Relative, restored bricks are scaled to the charge
+
+    private final SpectrumSimulator spectrumSimulator = createSimulator()                       ;
+    private final SimulationKernel  simulationKernel  = spectrumSimulator.getSimulationKernel() ;
+    private final SimulationInput   simulationInput   = spectrumSimulator.getSimulationInput()  ;
+
+    @Test
+    public void resumedSimulationEqualsFullSimulation() {
+
+        for (boolean simulateIsotopes : new boolean[]{false, true}) {
+
+            SimulationInput parent       = getVariant(simulationInput.getTarget(), simulateIsotopes);
+            BrickSpectra    parentBricks = new BrickSpectra();
+            simulationKernel.simulateFitness(parent, 0.0d, parentBricks);
+
+            //Targets which differ from the parent's one below the first and below the second layer
+            for (int commonLayers=1; commonLayers<=2; commonLayers++) {
+
+                Target target = simulationInput.getTarget();
+                Layer  layer  = target.getLayerList().get(commonLayers);
+                layer.setArealDensity(1.2d * layer.getArealDensity());
+
+                SimulationInput child = getVariant(target, simulateIsotopes);
+
+                double   fullFitness  = simulationKernel.simulateFitness(child, 0.0d, new BrickSpectra());
+                double[] fullSpectrum = simulationKernel.getLastSimulatedSpectrum().clone();
+
+                BrickSpectra resumedBricks = new BrickSpectra(parentBricks, commonLayers);
+                double       fitness       = simulationKernel.simulateFitness(child, 0.0d, resumedBricks);
+                double[]     spectrum      = simulationKernel.getLastSimulatedSpectrum().clone();
+
+                String message = commonLayers + " common layers, isotopes " + simulateIsotopes;
+                assertArrayEquals(message, fullSpectrum, spectrum, 0.0d);
+                assertEquals(message, fullFitness, fitness, 0.0d);
+            }
+        }
+    }
+
+    @Test
+    public void restoredSimulationEqualsFullSimulation() {
+
+        double charge        = simulationInput.getCharge()                    ;
+        double resolution    = simulationInput.getResolution()                ;
+        double maxResolution = simulationInput.getDetectorSetup().getMaxRes() ;
+
+        BrickSpectra bricks = new BrickSpectra();
+        simulationKernel.simulateFitness(getVariant(simulationInput.getTarget(), false), 0.0d, bricks);
+
+        //Other charges and resolutions, up to just below the largest one the bricks were simulated for
+        double[][] variants = {{1.3d * charge, resolution}, {charge, 0.5d * resolution},
+                               {0.7d * charge, maxResolution - 0.01d}};
+
+        for (double[] variant : variants) {
+
+            SimulationInput input = simulationInput.getVariant(simulationInput.getTarget(),
+                    simulationInput.getDetectorCalibration(), variant[0], variant[1], false);
+
+            double   fullFitness  = simulationKernel.simulateFitness(input, 0.0d, null);
+            double[] fullSpectrum = simulationKernel.getLastSimulatedSpectrum().clone();
+
+            assertTrue(bricks.isApplicable(variant[1]));
+            double   fitness  = simulationKernel.simulateFitness(input, 0.0d, bricks);
+            double[] spectrum = simulationKernel.getLastSimulatedSpectrum().clone();
+
+            String message = "Charge " + variant[0] + ", resolution " + variant[1];
+            for (int i=input.getStartChannel(); i<input.getStopChannel(); i++) {
+                assertEquals(message + ", channel " + i, fullSpectrum[i], spectrum[i], TOLERANCE * fullSpectrum[i]);
+            }
+            assertEquals(message, fullFitness, fitness, TOLERANCE * fullFitness);
+        }
+    }
+
+    private SimulationInput getVariant(Target target, boolean simulateIsotopes) {
+
+        return simulationInput.getVariant(target, simulationInput.getDetectorCalibration(),
+                simulationInput.getCharge(), simulationInput.getResolution(), simulateIsotopes);
+    }
+
+    //HfO2 / SiO2 on Si, 2 MeV He, the experimental spectrum is the simulated one
+    private static SpectrumSimulator createSimulator() {
+
+        ExperimentalSetup experimentalSetup = new ExperimentalSetup();
+        experimentalSetup.setE0(2000.0d);
+        experimentalSetup.setTheta(170.0d);
+
+        DetectorSetup detectorSetup = new DetectorSetup();
+        detectorSetup.setCalibrationFactor(2000.0d / NUMBER_OF_CHANNELS);
+        detectorSetup.setCalibrationOffset(20.0d);
+
+        Target target = new Target();
+        target.addLayer();
+        target.addLayer();
+        setLayer(target.getLayerList().get(0), "Hf", "O", 300.0d);
+        setLayer(target.getLayerList().get(1), "Si", "O", 800.0d);
+        target.getLayerList().get(2).setArealDensity(200000.0d);
+
+        SpectrumSimulator spectrumSimulator = new SpectrumSimulator(experimentalSetup, detectorSetup, target,
+                new Target(), new CalculationSetup());
+
+        spectrumSimulator.setExperimentalSpectrum(new double[NUMBER_OF_CHANNELS]);
+        spectrumSimulator.setStartChannel(NUMBER_OF_CHANNELS / 10);
+        spectrumSimulator.setStopChannel(NUMBER_OF_CHANNELS - 10);
+        spectrumSimulator.setExperimentalSpectrum(spectrumSimulator.simulate().getSimulatedSpectrum().clone());
+
+        return spectrumSimulator;
+    }
+
+    //Layer of the oxide MO2
+    private static void setLayer(Layer layer, String element, String oxygen, double arealDensity) {
+
+        layer.getElementList().get(0).setAtomicNumberByName(element);
+        layer.addElement();
+        layer.setElementAtomicNumberByName(1, oxygen);
+        layer.setElementRatio(0, 1.0d);
+        layer.setElementRatio(1, 2.0d);
+        layer.normalizeElements();
+        layer.setArealDensity(arealDensity);
+    }
+}
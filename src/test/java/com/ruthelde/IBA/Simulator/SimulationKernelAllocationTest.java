@@ -0,0 +1,99 @@
+package com.ruthelde.IBA.Simulator;
+
+import com.ruthelde.IBA.CalculationSetup.CalculationSetup;
+import com.ruthelde.IBA.Detector.DetectorSetup;
+import com.ruthelde.IBA.ExperimentalSetup.ExperimentalSetup;
+import com.ruthelde.Target.Layer;
+import com.ruthelde.Target.Target;
+import java.lang.management.ManagementFactory;
+import org.junit.Assume;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Repeated fitness simulations of the same input must not allocate memory in the kernel once all workspace buffers,
+ * pools and caches are filled and the JIT compiler has optimized it. Creating the input is not covered, a GA
+ * individual still allocates its variant input and brick storage for each evaluation, see Individual.simulate().
+ */
+public class SimulationKernelAllocationTest {
+
+    private static final int NUMBER_OF_CHANNELS = 512  ;
+    private static final int WARM_UP_ROUNDS     = 40   ; //Rounds until the JIT compiler has removed temporary objects
+    private static final int SIMULATIONS        = 100  ; //Simulations per round
+
+    @Test
+    public void simulateFitnessDoesNotAllocate() {
+
+        com.sun.management.ThreadMXBean threadMXBean = getThreadMXBean();
+        Assume.assumeTrue(threadMXBean != null && threadMXBean.isThreadAllocatedMemorySupported());
+        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+
+        SpectrumSimulator spectrumSimulator = createSimulator();
+        SimulationKernel  simulationKernel  = spectrumSimulator.getSimulationKernel();
+        SimulationInput   simulationInput   = spectrumSimulator.getSimulationInput();
+
+        long threadId = Thread.currentThread().getId();
+        long minBytes = Long.MAX_VALUE;
+
+        //The allocation of a round drops to zero as soon as the kernel is compiled, take the best round
+        for (int round=0; round<WARM_UP_ROUNDS && minBytes > 0; round++) {
+
+            long bytes0 = threadMXBean.getThreadAllocatedBytes(threadId);
+            for (int i=0; i<SIMULATIONS; i++) simulationKernel.simulateFitness(simulationInput);
+            long bytes1 = threadMXBean.getThreadAllocatedBytes(threadId);
+
+            minBytes = Math.min(minBytes, bytes1 - bytes0);
+        }
+
+        assertEquals("Bytes allocated by " + SIMULATIONS + " simulations", 0L, minBytes);
+    }
+
+    private static com.sun.management.ThreadMXBean getThreadMXBean() {
+
+        java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        return threadMXBean instanceof com.sun.management.ThreadMXBean
+                ? (com.sun.management.ThreadMXBean) threadMXBean : null;
+    }
+
+    //HfO2 / SiO2 on Si, 2 MeV He, the experimental spectrum is the simulated one
+    private static SpectrumSimulator createSimulator() {
+
+        ExperimentalSetup experimentalSetup = new ExperimentalSetup();
+        experimentalSetup.setE0(2000.0d);
+        experimentalSetup.setTheta(170.0d);
+
+        DetectorSetup detectorSetup = new DetectorSetup();
+        detectorSetup.setCalibrationFactor(2000.0d / NUMBER_OF_CHANNELS);
+        detectorSetup.setCalibrationOffset(20.0d);
+
+        Target target = new Target();
+        target.addLayer();
+        target.addLayer();
+        setLayer(target.getLayerList().get(0), "Hf", "O", 300.0d);
+        setLayer(target.getLayerList().get(1), "Si", "O", 800.0d);
+        target.getLayerList().get(2).setArealDensity(200000.0d);
+
+        SpectrumSimulator spectrumSimulator = new SpectrumSimulator(experimentalSetup, detectorSetup, target,
+                new Target(), new CalculationSetup());
+
+        spectrumSimulator.setExperimentalSpectrum(new double[NUMBER_OF_CHANNELS]);
+        spectrumSimulator.setStartChannel(NUMBER_OF_CHANNELS / 10);
+        spectrumSimulator.setStopChannel(NUMBER_OF_CHANNELS - 10);
+        spectrumSimulator.setExperimentalSpectrum(spectrumSimulator.simulate().getSimulatedSpectrum().clone());
+
+        return spectrumSimulator;
+    }
+
+    //Layer of the oxide MO2
+    private static void setLayer(Layer layer, String element, String oxygen, double arealDensity) {
+
+        layer.getElementList().get(0).setAtomicNumberByName(element);
+        layer.addElement();
+        layer.setElementAtomicNumberByName(1, oxygen);
+        layer.setElementRatio(0, 1.0d);
+        layer.setElementRatio(1, 2.0d);
+        layer.normalizeElements();
+        layer.setArealDensity(arealDensity);
+    }
+}
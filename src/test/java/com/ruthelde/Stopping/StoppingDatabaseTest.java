@@ -0,0 +1,64 @@
+package com.ruthelde.Stopping;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The database file is generated if it is missing, and generated again if its data does not match the checksum of
+ * its header.
+ */
+public class StoppingDatabaseTest {
+
+    private static final double MAX_REL_ERROR = 1.0E-4 ;
+    private static final int    DATA_POSITION = 4096   ; //Byte within the electronic stopping of H in H
+
+    @Test
+    public void regeneratesCorruptFile() throws IOException {
+
+        Path directory = Files.createTempDirectory("ruthelde");
+        Path path      = directory.resolve("stopping.bin");
+
+        try {
+            StoppingDatabase database = StoppingDatabase.open(path);
+            assertTrue("Generated", Files.isRegularFile(path));
+            assertStopping(database);
+
+            byte[] original = Files.readAllBytes(path);
+
+            //Flip one byte of the data, the header is unchanged
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                ByteBuffer value = ByteBuffer.wrap(new byte[]{(byte) ~original[DATA_POSITION]});
+                channel.write(value, DATA_POSITION);
+            }
+
+            database = StoppingDatabase.open(path);
+            assertEquals("Regenerated byte", original[DATA_POSITION], Files.readAllBytes(path)[DATA_POSITION]);
+            assertStopping(database);
+
+        } finally {
+            Files.deleteIfExists(path);
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    //Electronic stopping of H in Si from the database and from the formulas
+    private static void assertStopping(StoppingDatabase database) {
+
+        double[][]     coefficients = StoppingCalculator.getCoefficients();
+        StoppingKernel kernel       = StoppingKernel.compile(coefficients, 1, 1.0d, 14, (StoppingDatabase) null);
+        int            row          = database.getElectronicRow(1, 14);
+
+        for (double EM : new double[]{10.0d, 100.0d, 1000.0d}) {
+            double exact = kernel.getElectronicStopping(EM);
+            assertEquals("S_e at " + EM, exact, database.getElectronicStopping(row, EM), MAX_REL_ERROR * exact);
+        }
+    }
+}
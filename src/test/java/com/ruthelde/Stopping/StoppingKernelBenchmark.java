@@ -0,0 +1,100 @@
+package com.ruthelde.Stopping;
+
+import com.ruthelde.Target.Projectile;
+
+/**
+ * Time per stopping evaluation of the former formulas, the compiled kernels and StoppingCalculator (which looks up the
+ * kernel of each element) for H, He and heavy ion beams. The energies span 0.5 keV to 10 MeV, Z2 runs through all
+ * elements. Run with the test classes on the class path:
+ *
+ *   java -cp target/classes:target/test-classes com.ruthelde.Stopping.StoppingKernelBenchmark
+ */
+public class StoppingKernelBenchmark {
+
+    //Projectiles {Z1, M1}: H, He, C, Au
+    private static final double[][] PROJECTILES = {{1, 1.00783}, {2, 4.00260}, {6, 12.0000}, {79, 196.967}};
+    private static final String[]   NAMES       = {"H", "He", "C", "Au"};
+
+    private static final int NUMBER_OF_ENERGIES = 200 ;
+    private static final int WARM_UP_ROUNDS     = 20  ;
+    private static final int ROUNDS             = 20  ;
+
+    private static double sink;
+
+    public static void main(String[] args) {
+
+        double[][]               coefficients       = StoppingCalculator.getCoefficients()       ;
+        ZieglerBiersackReference reference          = new ZieglerBiersackReference(coefficients) ;
+        StoppingCalculator       stoppingCalculator = new StoppingCalculator()                   ;
+
+        double[] energies = new double[NUMBER_OF_ENERGIES];
+        for (int i=0; i<NUMBER_OF_ENERGIES; i++) {
+            energies[i] = 0.5d * Math.pow(2E4, (double) i / (NUMBER_OF_ENERGIES - 1));
+        }
+
+        System.out.println("ns per evaluation of S_e + S_n");
+        System.out.println("Beam      Formulas    Kernels   StoppingCalculator");
+
+        for (int p=0; p<PROJECTILES.length; p++) {
+
+            int    Z1 = (int) PROJECTILES[p][0] ;
+            double M1 = PROJECTILES[p][1]       ;
+
+            StoppingKernel[] kernels = new StoppingKernel[93];
+            for (int Z2=1; Z2<=92; Z2++) {
+                kernels[Z2] = StoppingKernel.compile(coefficients, Z1, M1, Z2, (StoppingDatabase) null);
+            }
+
+            Projectile projectile = new Projectile();
+            projectile.setZ(Z1);
+            projectile.setM(M1);
+
+            double formulas = 0.0d, compiled = 0.0d, calculator = 0.0d;
+
+            for (int round=0; round<WARM_UP_ROUNDS + ROUNDS; round++) {
+
+                long t0 = System.nanoTime();
+                double sum = 0.0d;
+                for (int Z2=1; Z2<=92; Z2++) {
+                    for (double E0 : energies) {
+                        sum += reference.calcElectronicStoppingZB(Z1, M1, Z2, E0)
+                             + reference.calcNuclearStoppingZB(Z1, M1, Z2, 2.0d * Z2, E0);
+                    }
+                }
+
+                long t1 = System.nanoTime();
+                for (int Z2=1; Z2<=92; Z2++) {
+                    StoppingKernel kernel = kernels[Z2];
+                    for (double E0 : energies) {
+                        sum += kernel.getElectronicStopping(E0) + kernel.getNuclearStopping(2.0d * Z2, E0);
+                    }
+                }
+
+                long t2 = System.nanoTime();
+                for (int Z2=1; Z2<=92; Z2++) {
+                    for (double E0 : energies) {
+                        projectile.setE(E0);
+                        sum += stoppingCalculator.getStoppingPower(projectile, Z2, 2.0d * Z2,
+                                StoppingCalculationMode.ZB, 2);
+                    }
+                }
+
+                long t3 = System.nanoTime();
+                sink += sum;
+
+                if (round >= WARM_UP_ROUNDS) {
+                    formulas   += t1 - t0;
+                    compiled   += t2 - t1;
+                    calculator += t3 - t2;
+                }
+            }
+
+            double evaluations = (double) ROUNDS * 92 * NUMBER_OF_ENERGIES;
+
+            System.out.println(String.format("%-6s %11.1f %10.1f %20.1f", NAMES[p], formulas / evaluations,
+                    compiled / evaluations, calculator / evaluations));
+        }
+
+        if (sink == 0.0d) System.out.println();
+    }
+}
@@ -0,0 +1,52 @@
+package com.ruthelde.Stopping;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The compiled kernels have to give exactly the values of the Ziegler-Biersack formulas they were derived from, for
+ * H, He and heavy ion beams in all elements.
+ */
+public class StoppingKernelTest {
+
+    //Projectiles {Z1, M1}: H, D, He-3, He-4, Li, C, O, Si, Ar, Au, U
+    private static final double[][] PROJECTILES = {
+            {1, 1.00783}, {1, 2.01410}, {2, 3.01603}, {2, 4.00260}, {3, 7.01600}, {6, 12.0000}, {8, 15.9949},
+            {14, 27.9769}, {18, 39.9624}, {79, 196.967}, {92, 238.051}
+    };
+
+    private static final double E_MIN              = 0.1  ; //keV
+    private static final double E_MAX              = 1E5  ; //keV
+    private static final int    NUMBER_OF_ENERGIES = 400  ;
+
+    @Test
+    public void kernelsMatchFormulas() {
+
+        double[][]               coefficients = StoppingCalculator.getCoefficients()            ;
+        ZieglerBiersackReference reference    = new ZieglerBiersackReference(coefficients)      ;
+
+        for (double[] projectile : PROJECTILES) {
+
+            int    Z1 = (int) projectile[0] ;
+            double M1 = projectile[1]       ;
+
+            for (int Z2=1; Z2<=92; Z2++) {
+
+                StoppingKernel kernel = StoppingKernel.compile(coefficients, Z1, M1, Z2, (StoppingDatabase) null);
+                double         M2     = 2.0d * Z2 + 1.0d;
+
+                for (int i=0; i<NUMBER_OF_ENERGIES; i++) {
+
+                    double E0      = E_MIN * Math.pow(E_MAX / E_MIN, (double) i / (NUMBER_OF_ENERGIES - 1));
+                    String message = "Z1=" + Z1 + " M1=" + M1 + " Z2=" + Z2 + " E0=" + E0;
+
+                    assertEquals("S_e " + message, reference.calcElectronicStoppingZB(Z1, M1, Z2, E0),
+                            kernel.getElectronicStopping(E0), 0.0d);
+                    assertEquals("S_n " + message, reference.calcNuclearStoppingZB(Z1, M1, Z2, M2, E0),
+                            kernel.getNuclearStopping(M2, E0), 0.0d);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.ruthelde.Stopping;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Reading of user supplied stopping tables, the resampled look up and the library which holds them.
+ */
+public class StoppingTableTest {
+
+    private static final double M_HE4 = 4.0026 ;
+    private static final double M_HE3 = 3.0160 ;
+
+    //Se = 10 + 5 ln(E), linear in log(E) as the resampling, so the look up is exact between all data points
+    private static final String ELEMENT_TABLE =
+            "# projectile = 2\n# mass = 4.0026\n# element = Si\n" +
+            "100  " + getSe(100.0d)  + "  3.0\n" +
+            "1000 " + getSe(1000.0d) + "  1.0\n" +
+            "5000 " + getSe(5000.0d) + "  0.5\n";
+
+    private static final String COMPOUND_TABLE =
+            "# Se of He in SiO2\n# projectile = 2\n# mass = 4.0026\n# compound = SiO2\n" +
+            "100  40.0\n1000 60.0\n";
+
+    @Test
+    public void loadsElementTable() throws IOException {
+
+        StoppingTable table = StoppingTable.load(createFile(ELEMENT_TABLE));
+
+        assertEquals("Z1", 2L, table.getZ1());
+        assertEquals("M1", M_HE4, table.getM1(), 0.0d);
+        assertEquals("Z2", 14L, table.getZ2());
+        assertNull(table.getCompound());
+        assertTrue(table.hasNuclearStopping(M_HE4));
+        assertFalse("Other isotope", table.hasNuclearStopping(M_HE3));
+    }
+
+    @Test
+    public void loadsCompoundTable() throws IOException {
+
+        StoppingTable table = StoppingTable.load(createFile(COMPOUND_TABLE));
+
+        assertEquals("Z2", 0L, table.getZ2());
+        assertEquals("SiO2", table.getCompound());
+        assertFalse(table.hasNuclearStopping(M_HE4));
+        assertTrue(Double.isNaN(table.getNuclearStopping(500.0d / M_HE4)));
+        assertEquals(50.0d, table.getElectronicStopping(Math.sqrt(100.0d * 1000.0d) / M_HE4), 1E-9);
+    }
+
+    @Test
+    public void rejectsInvalidTables() throws IOException {
+
+        String[] invalidTables = {
+                "# projectile = 2\n# mass = 4.0026\n# element = Si\n100 10.0\n50 20.0\n",       //Unsorted energies
+                "# mass = 4.0026\n# element = Si\n100 10.0\n1000 20.0\n",                       //No projectile
+                "# projectile = 2\n# element = Si\n100 10.0\n1000 20.0\n",                      //No mass
+                "# projectile = 2\n# mass = 4.0026\n# element = Si\n# compound = SiO2\n100 10.0\n1000 20.0\n",
+                "# projectile = 2\n# mass = 4.0026\n100 10.0\n1000 20.0\n",                      //No target
+                "# projectile = 2\n# mass = 4.0026\n# element = Si\n100 10.0\n",                  //One data point
+                "# projectile = 2\n# mass = 4.0026\n# element = Si\n100 10.0 1.0\n1000 20.0\n",   //Column count
+                "# projectile = 2\n# mass = 4.0026\n# element = Xy\n100 10.0\n1000 20.0\n",       //Unknown element
+                "# projectile = 2\n# mass = 4.0026\n# element = Si\n100 ten\n1000 20.0\n"         //No number
+        };
+
+        for (String invalidTable : invalidTables) {
+            try {
+                StoppingTable.load(createFile(invalidTable));
+                fail("Accepted table:\n" + invalidTable);
+            } catch (IOException e) {
+                //Expected
+            }
+        }
+    }
+
+    @Test
+    public void looksUpResampledValues() throws IOException {
+
+        StoppingTable table = StoppingTable.load(createFile(ELEMENT_TABLE));
+
+        for (double E : new double[]{100.0d, 150.0d, 999.0d, 1000.0d, 2345.6d, 5000.0d}) {
+            assertEquals("Se at " + E, getSe(E), table.getElectronicStopping(E / M_HE4), 1E-9);
+        }
+
+        //Sn at the data points and linear in log(E) between them
+        assertEquals(3.0d, table.getNuclearStopping(100.0d / M_HE4), 1E-9);
+        assertEquals(2.0d, table.getNuclearStopping(Math.sqrt(100.0d * 1000.0d) / M_HE4), 1E-9);
+        assertEquals(0.5d, table.getNuclearStopping(5000.0d / M_HE4), 1E-9);
+
+        //Out of range
+        for (double E : new double[]{99.0d, 5001.0d, 0.0d}) {
+            assertTrue("Se at " + E, Double.isNaN(table.getElectronicStopping(E / M_HE4)));
+            assertTrue("Sn at " + E, Double.isNaN(table.getNuclearStopping(E / M_HE4)));
+        }
+    }
+
+    @Test
+    public void usesNuclearStoppingOnlyForTheTablesProjectile() throws IOException {
+
+        StoppingTable table        = StoppingTable.load(createFile(ELEMENT_TABLE)) ;
+        double[][]    coefficients = StoppingCalculator.getCoefficients()          ;
+        double        M2           = 27.9769                                       ;
+
+        StoppingKernel he4        = StoppingKernel.compile(coefficients, 2, M_HE4, 14, table);
+        StoppingKernel he3        = StoppingKernel.compile(coefficients, 2, M_HE3, 14, table);
+        StoppingKernel he3Formula = StoppingKernel.compile(coefficients, 2, M_HE3, 14, (StoppingDatabase) null);
+
+        //Sn of the table for its projectile, of the formulas for other isotopes. Se is scaled with the velocity.
+        assertEquals(1.0d, he4.getNuclearStopping(M2, 1000.0d), 1E-9);
+        assertEquals(he3Formula.getNuclearStopping(M2, 1000.0d), he3.getNuclearStopping(M2, 1000.0d), 0.0d);
+        assertEquals(getSe(1000.0d * M_HE4 / M_HE3), he3.getElectronicStopping(1000.0d), 1E-9);
+    }
+
+    @Test
+    public void libraryFindsAndReplacesTables() throws IOException {
+
+        StoppingTableLibrary library = new StoppingTableLibrary();
+        int                  version = library.getVersion();
+
+        File[] files = {createFile(ELEMENT_TABLE), createFile(COMPOUND_TABLE), createFile("# projectile = 2\n")};
+
+        assertEquals("Loaded tables", 2L, library.load(files));
+        assertEquals(2L, library.getNumberOfTables());
+        assertTrue(library.getVersion() != version);
+
+        assertEquals(14L, library.getElementTable(2, 14).getZ2());
+        assertEquals("SiO2", library.getCompoundTable(2, "SiO2").getCompound());
+        assertNull("Other projectile", library.getElementTable(1, 14));
+        assertNull("Other projectile", library.getCompoundTable(1, "SiO2"));
+        assertNull(library.getCompoundTable(2, null));
+
+        //A table of the same pair replaces the old one
+        StoppingTable table = library.load(createFile(ELEMENT_TABLE.replace("3.0\n", "4.0\n")));
+        assertEquals(2L, library.getNumberOfTables());
+        assertSame(table, library.getElementTable(2, 14));
+
+        library.clear();
+        assertEquals(0L, library.getNumberOfTables());
+        assertNull(library.getElementTable(2, 14));
+    }
+
+    private static double getSe(double E) {
+        return 10.0d + 5.0d * Math.log(E);
+    }
+
+    private static File createFile(String content) throws IOException {
+
+        File file = File.createTempFile("stopping", ".txt");
+        file.deleteOnExit();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+
+        return file;
+    }
+}